@@ -10,7 +10,8 @@ import tslamic.fancybackground.R;
 import tslamic.fancybg.FancyBackground;
 
 
-public class MainActivity extends Activity implements FancyBackground.FancyListener {
+public class MainActivity extends Activity implements
+        FancyBackground.FancyListener, FancyBackground.FancyDeadlineListener {
 
     private static final String TAG = "FancyBackground";
 
@@ -34,6 +35,7 @@ public class MainActivity extends Activity implements FancyBackground.FancyListe
                 .interval(2500)
                 .scale(ImageView.ScaleType.CENTER_CROP)
                 .listener(this)
+                .lifecycle(this)
                 .start();
     }
 
@@ -52,6 +54,11 @@ public class MainActivity extends Activity implements FancyBackground.FancyListe
         Log.d(TAG, "Stopped FancyBackground.");
     }
 
+    @Override
+    public void onDeadlineMissed(FancyBackground bg, long lateMillis) {
+        Log.d(TAG, "Drawable shown " + lateMillis + "ms late.");
+    }
+
     @Override
     public void onLoopDone(FancyBackground bg) {
         Log.d(TAG, "Loop complete.");
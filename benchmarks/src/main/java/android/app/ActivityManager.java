@@ -0,0 +1,22 @@
+package android.app;
+
+/**
+ * JVM shim of the Android class, reporting a fixed memory class.
+ */
+public class ActivityManager {
+
+    private final int mMemoryClass;
+
+    public ActivityManager(int memoryClass) {
+        mMemoryClass = memoryClass;
+    }
+
+    public int getMemoryClass() {
+        return mMemoryClass;
+    }
+
+    public int getLargeMemoryClass() {
+        return mMemoryClass * 2;
+    }
+
+}
@@ -0,0 +1,32 @@
+package android.content;
+
+import android.app.ActivityManager;
+import android.content.pm.ApplicationInfo;
+
+/**
+ * JVM shim of the Android class, providing just what the caches need.
+ */
+public class Context {
+
+    public static final String ACTIVITY_SERVICE = "activity";
+
+    private final ActivityManager mActivityManager;
+    private final ApplicationInfo mApplicationInfo;
+
+    /**
+     * @param memoryClass the emulated heap size in megabytes.
+     */
+    public Context(int memoryClass) {
+        mActivityManager = new ActivityManager(memoryClass);
+        mApplicationInfo = new ApplicationInfo();
+    }
+
+    public Object getSystemService(String name) {
+        return ACTIVITY_SERVICE.equals(name) ? mActivityManager : null;
+    }
+
+    public ApplicationInfo getApplicationInfo() {
+        return mApplicationInfo;
+    }
+
+}
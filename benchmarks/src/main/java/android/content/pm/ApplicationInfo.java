@@ -0,0 +1,12 @@
+package android.content.pm;
+
+/**
+ * JVM shim of the Android class.
+ */
+public class ApplicationInfo {
+
+    public static final int FLAG_LARGE_HEAP = 1 << 20;
+
+    public int flags;
+
+}
@@ -0,0 +1,86 @@
+package android.graphics;
+
+/**
+ * JVM shim of the Android class. Tracks dimensions and state only, no pixel
+ * memory is allocated.
+ */
+public final class Bitmap {
+
+    public enum Config {
+        ALPHA_8(1),
+        RGB_565(2),
+        ARGB_4444(2),
+        ARGB_8888(4);
+
+        final int bytesPerPixel;
+
+        Config(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    private final int mAllocation;
+    private final boolean mMutable;
+    private Config mConfig;
+    private int mWidth;
+    private int mHeight;
+    private boolean mRecycled;
+
+    private Bitmap(int width, int height, Config config, boolean mutable) {
+        mAllocation = width * height * config.bytesPerPixel;
+        mMutable = mutable;
+        mConfig = config;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config, true);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Config getConfig() {
+        return mConfig;
+    }
+
+    public int getRowBytes() {
+        return mWidth * mConfig.bytesPerPixel;
+    }
+
+    public int getByteCount() {
+        return getRowBytes() * mHeight;
+    }
+
+    public int getAllocationByteCount() {
+        return mAllocation;
+    }
+
+    public boolean isMutable() {
+        return mMutable;
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+
+    public void recycle() {
+        mRecycled = true;
+    }
+
+    public void reconfigure(int width, int height, Config config) {
+        if (width * height * config.bytesPerPixel > mAllocation) {
+            throw new IllegalArgumentException("bitmap too small");
+        }
+        mConfig = config;
+        mWidth = width;
+        mHeight = height;
+    }
+
+}
@@ -0,0 +1,23 @@
+package android.graphics;
+
+/**
+ * JVM shim of the Android class, only the options are provided.
+ */
+public class BitmapFactory {
+
+    public static class Options {
+
+        public Bitmap inBitmap;
+        public int inDensity;
+        public boolean inJustDecodeBounds;
+        public boolean inMutable;
+        public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
+        public int inSampleSize;
+        public boolean inScaled = true;
+        public int inTargetDensity;
+        public int outHeight;
+        public int outWidth;
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * JVM shim of the Android class. The emulated API level defaults to KitKat
+ * and can be changed with the "fancybg.sdk" system property.
+ */
+public class Build {
+
+    public static class VERSION {
+
+        public static final int SDK_INT = Integer.getInteger("fancybg.sdk",
+                VERSION_CODES.KITKAT);
+
+    }
+
+    public static class VERSION_CODES {
+
+        public static final int GINGERBREAD = 9;
+        public static final int HONEYCOMB = 11;
+        public static final int HONEYCOMB_MR1 = 12;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+
+    }
+
+}
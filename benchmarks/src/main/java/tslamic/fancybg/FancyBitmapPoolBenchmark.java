@@ -0,0 +1,51 @@
+package tslamic.fancybg;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures a full {@link tslamic.fancybg.FancyBitmapPool} round trip: finding
+ * a reusable Bitmap for a decode and pooling it again once evicted.
+ */
+@State(Scope.Benchmark)
+public class FancyBitmapPoolBenchmark {
+
+    private static final int[][] SIZES = {
+            {1080, 1920}, {720, 1280}, {540, 960}, {1920, 1080}
+    };
+
+    private FancyBitmapPool mPool;
+    private BitmapFactory.Options mOptions;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mPool = new FancyBitmapPool(new Context(512));
+        mOptions = new BitmapFactory.Options();
+        for (int[] size : SIZES) {
+            mPool.put(Bitmap.createBitmap(size[0], size[1], Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    @Benchmark
+    public Bitmap prepareAndPut() {
+        final int[] size = SIZES[mNext = (mNext + 1) % SIZES.length];
+        mOptions.outWidth = size[0] * 2;
+        mOptions.outHeight = size[1] * 2;
+        mOptions.inSampleSize = 2;
+
+        mPool.prepare(mOptions);
+        final Bitmap bitmap = mOptions.inBitmap;
+        if (null != bitmap) {
+            mPool.put(bitmap);
+        }
+        return bitmap;
+    }
+
+}
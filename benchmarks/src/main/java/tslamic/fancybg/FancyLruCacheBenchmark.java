@@ -0,0 +1,81 @@
+package tslamic.fancybg;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures {@link tslamic.fancybg.FancyLruCache} throughput: hits, puts that
+ * force evictions into the pool, and mixed concurrent access.
+ */
+@State(Scope.Benchmark)
+public class FancyLruCacheBenchmark {
+
+    /*
+     * Emulated heap in megabytes, the cache targets 25% of it.
+     */
+    private static final int MEMORY_CLASS = 64;
+
+    /*
+     * 256x256 ARGB_8888, 256 KB each, so 64 of them fit in the cache.
+     */
+    private static final int SIDE = 256;
+
+    @Param({"32", "128"})
+    public int keys;
+
+    private FancyLruCache mCache;
+    private Bitmap[] mBitmaps;
+    private long[] mKeys;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        final Context context = new Context(MEMORY_CLASS);
+        final FancyBitmapPool pool = new FancyBitmapPool(context);
+        mCache = new FancyLruCache(context, pool);
+        mBitmaps = new Bitmap[keys];
+        mKeys = new long[keys];
+        for (int i = 0; i < keys; i++) {
+            mBitmaps[i] = Bitmap.createBitmap(SIDE, SIDE, Bitmap.Config.ARGB_8888);
+            mKeys[i] = FancyKey.of(0x7f020000 + i, 1080, 1920);
+            mCache.put(mKeys[i], mBitmaps[i]);
+        }
+    }
+
+    @Benchmark
+    public Bitmap get() {
+        final int i = ThreadLocalRandom.current().nextInt(keys);
+        return mCache.get(mKeys[i]);
+    }
+
+    /*
+     * Cycles through all the keys, evicting once over capacity.
+     */
+    @Benchmark
+    public boolean put() {
+        final int i = mNext = (mNext + 1) % keys;
+        return mCache.put(mKeys[i], mBitmaps[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Bitmap concurrent() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int i = random.nextInt(keys);
+        if (random.nextInt(10) == 0) {
+            mCache.put(mKeys[i], mBitmaps[i]);
+            return null;
+        }
+        return mCache.get(mKeys[i]);
+    }
+
+}
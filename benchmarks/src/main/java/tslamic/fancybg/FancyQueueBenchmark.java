@@ -0,0 +1,65 @@
+package tslamic.fancybg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Measures the tick dispatch path: many FancyBackground queues multiplexed
+ * on one shared, bounded executor, as the shared scheduler does.
+ */
+@State(Scope.Benchmark)
+public class FancyQueueBenchmark {
+
+    private static final int TICKS = 64;
+
+    @Param({"1", "12"})
+    public int backgrounds;
+
+    @Param({"1", "2"})
+    public int parallelism;
+
+    private ScheduledThreadPoolExecutor mExecutor;
+    private FancyQueue[] mQueues;
+
+    @Setup
+    public void setUp() {
+        mExecutor = new ScheduledThreadPoolExecutor(4);
+        mQueues = new FancyQueue[backgrounds];
+        for (int i = 0; i < backgrounds; i++) {
+            mQueues[i] = new FancyQueue(mExecutor, parallelism);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    /*
+     * Dispatches a burst of ticks to every queue and waits for all of them.
+     */
+    @Benchmark
+    public void dispatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TICKS * backgrounds);
+        final Runnable tick = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < TICKS; i++) {
+            for (FancyQueue queue : mQueues) {
+                queue.execute(tick);
+            }
+        }
+        done.await();
+    }
+
+}
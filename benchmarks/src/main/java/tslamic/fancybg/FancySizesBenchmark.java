@@ -0,0 +1,35 @@
+package tslamic.fancybg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the decode size computations and cache key packing.
+ */
+@State(Scope.Thread)
+public class FancySizesBenchmark {
+
+    public int width = 4032;
+    public int height = 3024;
+    public int reqWidth = 1080;
+    public int reqHeight = 1920;
+
+    @Benchmark
+    public int sampleSize() {
+        return FancySizes.getSampleSize(width, height, reqWidth, reqHeight);
+    }
+
+    @Benchmark
+    public int exactSampleSize() {
+        final float scale = FancySizes.getCoverScale(width, height,
+                reqWidth, reqHeight);
+        return FancySizes.getPowerOfTwoSampleSize(scale);
+    }
+
+    @Benchmark
+    public long key() {
+        return FancyKey.of(0x7f020001, reqWidth, reqHeight);
+    }
+
+}
@@ -0,0 +1,67 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+public class FancyBitmapPoolTest extends AndroidTestCase {
+
+    private FancyBitmapPool mPool;
+    private Bitmap mBitmap;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mPool = new FancyBitmapPool(getContext());
+        mBitmap = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        mPool.clear();
+        mPool = null;
+
+        mBitmap.recycle();
+        mBitmap = null;
+    }
+
+    public void testInitialValues() throws Exception {
+        Assert.assertTrue(mPool.getMaxSize() > 0);
+        Assert.assertEquals(mPool.getSize(), 0);
+    }
+
+    public void testPutGet() throws Exception {
+        mPool.put(mBitmap);
+        if (FancyBitmapPool.isSupported()) {
+            Assert.assertEquals(mPool.getSize(), 16 * 16 * 4);
+            Assert.assertSame(mBitmap, mPool.get(16, 16, Bitmap.Config.ARGB_8888));
+            Assert.assertEquals(mPool.getSize(), 0);
+        } else {
+            Assert.assertTrue(mBitmap.isRecycled());
+        }
+    }
+
+    public void testRetained() throws Exception {
+        mPool.retain(mBitmap);
+        mPool.put(mBitmap);
+        Assert.assertEquals(mPool.getSize(), 0);
+        Assert.assertNull(mPool.get(16, 16, Bitmap.Config.ARGB_8888));
+
+        mPool.release(mBitmap);
+        if (FancyBitmapPool.isSupported()) {
+            Assert.assertSame(mBitmap, mPool.get(16, 16, Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    public void testClear() throws Exception {
+        mPool.put(mBitmap);
+        mPool.clear();
+
+        Assert.assertEquals(mPool.getSize(), 0);
+        Assert.assertTrue(mBitmap.isRecycled());
+    }
+
+}
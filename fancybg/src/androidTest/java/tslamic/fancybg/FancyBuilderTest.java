@@ -82,6 +82,75 @@ public class FancyBuilderTest extends AndroidTestCase {
                 FancyBackground.on(mSource).interval(-1);
             }
         });
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).interval(0);
+            }
+        });
+    }
+
+    public void testExecutorIsNull() throws Exception {
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).executor(null);
+            }
+        });
+    }
+
+    public void testParallelism() throws Exception {
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).parallelism(0);
+            }
+        });
+    }
+
+    public void testDiskCacheSize() throws Exception {
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).diskCache(-1);
+            }
+        });
+    }
+
+    public void testCompressedCacheSize() throws Exception {
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).compressedCache(-1);
+            }
+        });
+    }
+
+    public void testDirectCacheSize() throws Exception {
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).directCache(-1);
+            }
+        });
+    }
+
+    public void testConfigIsNull() throws Exception {
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).config(null);
+            }
+        });
+    }
+
+    public void testLifecycleIsNull() throws Exception {
+        assertArgsException(new Runnable() {
+            @Override
+            public void run() {
+                FancyBackground.on(mSource).lifecycle(null);
+            }
+        });
     }
 
     public void testDrawablesNull() throws Exception {
@@ -0,0 +1,100 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+public class FancyCompressedCacheTest extends AndroidTestCase {
+
+    private FancyCompressedCache mCache;
+    private Bitmap mBitmap;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCache = new FancyCompressedCache(1024 * 1024);
+        mBitmap = Bitmap.createBitmap(256, 128, Bitmap.Config.RGB_565);
+        mBitmap.eraseColor(Color.RED);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        mCache.clear();
+        mCache = null;
+
+        mBitmap.recycle();
+        mBitmap = null;
+    }
+
+    public void testPutGet() throws Exception {
+        Assert.assertTrue(mCache.put(1, mBitmap));
+        Assert.assertTrue(mCache.getSize() > 0);
+        Assert.assertTrue(mCache.getSize() < mBitmap.getRowBytes() * mBitmap.getHeight());
+
+        final Bitmap get = mCache.get(1);
+        Assert.assertNotNull(get);
+        Assert.assertEquals(get.getWidth(), 256);
+        Assert.assertEquals(get.getHeight(), 128);
+        Assert.assertEquals(get.getConfig(), Bitmap.Config.RGB_565);
+    }
+
+    public void testBackgroundCompression() throws Exception {
+        final FancyDeferredExecutor executor = new FancyDeferredExecutor();
+        final FancyBitmapPool pool = new FancyBitmapPool(0);
+        final FancyCompressedCache cache = new FancyCompressedCache(1024 * 1024,
+                FancyCompressedCache.DEFAULT_QUALITY, pool, null, executor);
+
+        Assert.assertTrue(cache.put(1, mBitmap));
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(cache.getSize(), 0);
+
+        executor.runAll();
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertTrue(cache.getSize() > 0);
+    }
+
+    public void testDuplicatePutWhileCompressing() throws Exception {
+        final FancyDeferredExecutor executor = new FancyDeferredExecutor();
+        final FancyBitmapPool pool = new FancyBitmapPool(0);
+        final FancyCompressedCache cache = new FancyCompressedCache(1024 * 1024,
+                FancyCompressedCache.DEFAULT_QUALITY, pool, null, executor);
+
+        Assert.assertTrue(cache.put(1, mBitmap));
+        Assert.assertTrue(cache.put(1, mBitmap));
+        Assert.assertEquals(executor.size(), 1);
+
+        /*
+         * Retained exactly once until compressed: the empty pool can't
+         * recycle it before, and does right after.
+         */
+        pool.put(mBitmap);
+        Assert.assertFalse(mBitmap.isRecycled());
+        executor.runAll();
+        Assert.assertTrue(mBitmap.isRecycled());
+        Assert.assertNotNull(cache.get(1));
+    }
+
+    public void testNextTier() throws Exception {
+        final FancyCompressedCache next = new FancyCompressedCache(1024 * 1024);
+        final FancyCompressedCache cache = new FancyCompressedCache(1024 * 1024,
+                FancyCompressedCache.DEFAULT_QUALITY, null, next);
+        cache.put(1, mBitmap);
+        cache.clear();
+
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertEquals(next.getHitCount(), 1);
+    }
+
+    public void testQuality() throws Exception {
+        try {
+            new FancyCompressedCache(1024, 0, null, null);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+}
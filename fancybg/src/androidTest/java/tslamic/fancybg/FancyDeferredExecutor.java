@@ -0,0 +1,40 @@
+package tslamic.fancybg;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the executed tasks until they are run on the test thread, so the
+ * state before and after background work can be checked.
+ */
+class FancyDeferredExecutor implements Executor {
+
+    private final LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        mTasks.addLast(task);
+    }
+
+    /**
+     * Returns the number of tasks waiting to be run.
+     */
+    synchronized int size() {
+        return mTasks.size();
+    }
+
+    /**
+     * Runs the waiting tasks, including those they execute in turn.
+     */
+    void runAll() {
+        Runnable task;
+        while (null != (task = poll())) {
+            task.run();
+        }
+    }
+
+    private synchronized Runnable poll() {
+        return mTasks.poll();
+    }
+
+}
@@ -0,0 +1,168 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.MemoryFile;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FancyDirectCacheTest extends AndroidTestCase {
+
+    private FancyDirectCache mCache;
+    private Bitmap mBitmap;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCache = new FancyDirectCache(1024 * 1024);
+        mBitmap = Bitmap.createBitmap(16, 8, Bitmap.Config.RGB_565);
+        mBitmap.eraseColor(Color.RED);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        mCache.clear();
+        mCache = null;
+
+        mBitmap.recycle();
+        mBitmap = null;
+    }
+
+    public void testPutGet() throws Exception {
+        Assert.assertTrue(mCache.put(1, mBitmap));
+        Assert.assertEquals(mCache.getSize(),
+                mBitmap.getRowBytes() * mBitmap.getHeight());
+
+        final Bitmap get = mCache.get(1);
+        Assert.assertNotNull(get);
+        Assert.assertNotSame(get, mBitmap);
+        Assert.assertEquals(get.getWidth(), 16);
+        Assert.assertEquals(get.getHeight(), 8);
+        Assert.assertEquals(get.getConfig(), Bitmap.Config.RGB_565);
+        Assert.assertEquals(get.getPixel(0, 0), Color.RED);
+        Assert.assertEquals(mCache.get(1).getPixel(15, 7), Color.RED);
+    }
+
+    public void testPool() throws Exception {
+        final FancyBitmapPool pool = new FancyBitmapPool(1024 * 1024);
+        final FancyDirectCache cache = new FancyDirectCache(1024 * 1024,
+                pool, null);
+        cache.put(1, mBitmap);
+
+        final Bitmap reusable = Bitmap.createBitmap(16, 8, Bitmap.Config.RGB_565);
+        pool.put(reusable);
+        final Bitmap get = cache.get(1);
+
+        if (FancyBitmapPool.isSupported()) {
+            Assert.assertSame(get, reusable);
+        }
+        Assert.assertEquals(get.getPixel(0, 0), Color.RED);
+    }
+
+    public void testRegionsClosed() throws Exception {
+        final int size = mBitmap.getRowBytes() * mBitmap.getHeight();
+        final TrackingCache cache = new TrackingCache(size * 2);
+
+        cache.put(1, mBitmap);
+        cache.put(1, mBitmap);
+        Assert.assertTrue(cache.regions.get(0).closed);
+
+        cache.put(2, mBitmap);
+        cache.get(2);
+        cache.put(3, mBitmap);
+        Assert.assertTrue(cache.regions.get(1).closed);
+        Assert.assertFalse(cache.regions.get(2).closed);
+        Assert.assertEquals(cache.getEvictionCount(), 1);
+
+        cache.clear();
+        for (TrackedRegion region : cache.regions) {
+            Assert.assertTrue(region.closed);
+        }
+    }
+
+    public void testStagingDropped() throws Exception {
+        Assert.assertFalse(mCache.isStaging());
+        mCache.put(1, mBitmap);
+        mCache.put(2, mBitmap);
+        Assert.assertTrue(mCache.isStaging());
+
+        mCache.trimToSize(mCache.getSize() - 1);
+        Assert.assertTrue(mCache.isStaging());
+        mCache.trimToSize(0);
+        Assert.assertFalse(mCache.isStaging());
+
+        mCache.put(1, mBitmap);
+        mCache.clear();
+        Assert.assertFalse(mCache.isStaging());
+    }
+
+    public void testLargeBitmap() throws Exception {
+        final Bitmap large = Bitmap.createBitmap(512, 512, Bitmap.Config.ARGB_8888);
+        large.eraseColor(Color.BLUE);
+        large.setPixel(511, 511, Color.GREEN);
+
+        Assert.assertTrue(mCache.put(1, large));
+        final Bitmap get = mCache.get(1);
+        Assert.assertEquals(get.getPixel(0, 0), Color.BLUE);
+        Assert.assertEquals(get.getPixel(511, 511), Color.GREEN);
+        large.recycle();
+    }
+
+    public void testUnsupportedConfig() throws Exception {
+        final Bitmap alpha = Bitmap.createBitmap(16, 8, Bitmap.Config.ALPHA_8);
+
+        Assert.assertFalse(mCache.put(1, alpha));
+        Assert.assertEquals(mCache.getPutRejectedCount(), 1);
+        Assert.assertFalse(mCache.isStaging());
+        alpha.recycle();
+    }
+
+    public void testMaxSize() throws Exception {
+        try {
+            new FancyDirectCache(0);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static class TrackedRegion extends MemoryFile {
+
+        boolean closed;
+
+        TrackedRegion(int size) throws IOException {
+            super(null, size);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            super.close();
+        }
+
+    }
+
+    private static class TrackingCache extends FancyDirectCache {
+
+        final List<TrackedRegion> regions = new ArrayList<TrackedRegion>();
+
+        TrackingCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        MemoryFile newRegion(int size) throws IOException {
+            final TrackedRegion region = new TrackedRegion(size);
+            regions.add(region);
+            return region;
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+public class FancyDiskCacheTest extends AndroidTestCase {
+
+    private FancyDiskCache mCache;
+    private Bitmap mBitmap;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCache = new FancyDiskCache(getContext(), 1024 * 1024);
+        mCache.clear();
+        mBitmap = Bitmap.createBitmap(16, 8, Bitmap.Config.RGB_565);
+        mBitmap.eraseColor(Color.RED);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        mCache.clear();
+        mCache = null;
+
+        mBitmap.recycle();
+        mBitmap = null;
+    }
+
+    public void testPutGet() throws Exception {
+        Assert.assertTrue(mCache.put(1, mBitmap));
+
+        final Bitmap get = mCache.get(1);
+        Assert.assertNotNull(get);
+        Assert.assertEquals(get.getWidth(), 16);
+        Assert.assertEquals(get.getHeight(), 8);
+        Assert.assertEquals(get.getConfig(), Bitmap.Config.RGB_565);
+        Assert.assertEquals(get.getPixel(0, 0), Color.RED);
+    }
+
+    public void testSurvivesNewInstance() throws Exception {
+        mCache.put(1, mBitmap);
+        mCache = new FancyDiskCache(getContext(), 1024 * 1024);
+
+        Assert.assertNotNull(mCache.get(1));
+    }
+
+    public void testTruncatedFile() throws Exception {
+        mCache.put(1, mBitmap);
+        final File file = getFile(1);
+        final RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(file.length() - 2);
+        } finally {
+            out.close();
+        }
+
+        Assert.assertNull(mCache.get(1));
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(mCache.getSize(), 0);
+    }
+
+    public void testCorruptedFile() throws Exception {
+        mCache.put(1, mBitmap);
+        final File file = getFile(1);
+        final RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.writeInt(0);
+        } finally {
+            out.close();
+        }
+
+        Assert.assertNull(mCache.get(1));
+        Assert.assertFalse(file.exists());
+    }
+
+    public void testStaleVersionDeleted() throws Exception {
+        mCache.put(1, mBitmap);
+        final File stale = new File(getFile(1).getParentFile().getParentFile(),
+                "stale");
+        Assert.assertTrue(stale.isDirectory() || stale.mkdirs());
+        final FileOutputStream out = new FileOutputStream(
+                new File(stale, "1.px"));
+        out.close();
+
+        mCache = new FancyDiskCache(getContext(), 1024 * 1024);
+        Assert.assertNotNull(mCache.get(1));
+        Assert.assertFalse(stale.exists());
+    }
+
+    public void testBackgroundWrite() throws Exception {
+        final FancyDeferredExecutor executor = new FancyDeferredExecutor();
+        final FancyBitmapPool pool = new FancyBitmapPool(0);
+        final FancyDiskCache cache = new FancyDiskCache(getContext(),
+                1024 * 1024, pool, executor);
+
+        Assert.assertTrue(cache.put(1, mBitmap));
+        Assert.assertNull(cache.get(1));
+
+        /*
+         * Retained while waiting to be written, so it isn't recycled.
+         */
+        pool.put(mBitmap);
+        Assert.assertFalse(mBitmap.isRecycled());
+
+        executor.runAll();
+        Assert.assertTrue(mBitmap.isRecycled());
+        Assert.assertNotNull(cache.get(1));
+    }
+
+    public void testClear() throws Exception {
+        mCache.put(1, mBitmap);
+        final File file = getFile(1);
+        mCache.clear();
+
+        Assert.assertNull(mCache.get(1));
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(mCache.getSize(), 0);
+    }
+
+    /*
+     * The file of the key, in the directory of the installed app version.
+     */
+    private File getFile(long key) {
+        final File root = new File(getContext().getCacheDir(), "fancybg");
+        final String name = Long.toHexString(key) + ".px";
+        for (File version : root.listFiles()) {
+            final File file = new File(version, name);
+            if (file.exists()) {
+                return file;
+            }
+        }
+        throw new AssertionError("no file for " + key);
+    }
+
+}
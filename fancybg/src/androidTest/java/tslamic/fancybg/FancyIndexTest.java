@@ -0,0 +1,63 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+import android.widget.ImageView;
+
+import junit.framework.Assert;
+
+public class FancyIndexTest extends AndroidTestCase {
+
+    private FancyIndex mIndex;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        final FancyDecoder decoder = new FancyDecoder(getContext().getResources(),
+                null, ImageView.ScaleType.FIT_XY, false, Bitmap.Config.ARGB_8888, false);
+        mIndex = new FancyIndex(decoder);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mIndex = null;
+    }
+
+    public void testBitmapEntry() throws Exception {
+        final FancyIndex.Entry entry = mIndex.get(R.drawable.ic_launcher);
+
+        Assert.assertTrue(entry.bitmap);
+        Assert.assertTrue(entry.width > 0);
+        Assert.assertTrue(entry.height > 0);
+        Assert.assertEquals(entry.config, Bitmap.Config.ARGB_8888);
+        Assert.assertEquals(entry.getByteCount(entry.getScaledWidth(),
+                entry.getScaledHeight()),
+                entry.getScaledWidth() * entry.getScaledHeight() * 4);
+    }
+
+    public void testDensityScaledBounds() throws Exception {
+        final FancyIndex.Entry entry = mIndex.get(R.drawable.ic_launcher);
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        final Bitmap raw = BitmapFactory.decodeResource(
+                getContext().getResources(), R.drawable.ic_launcher, options);
+        final Bitmap scaled = BitmapFactory.decodeResource(
+                getContext().getResources(), R.drawable.ic_launcher);
+
+        Assert.assertEquals(entry.width, raw.getWidth());
+        Assert.assertEquals(entry.height, raw.getHeight());
+        Assert.assertEquals(entry.getScaledWidth(), scaled.getWidth());
+        Assert.assertEquals(entry.getScaledHeight(), scaled.getHeight());
+    }
+
+    public void testSameEntry() throws Exception {
+        mIndex.build(new int[]{R.drawable.ic_launcher});
+
+        Assert.assertSame(mIndex.get(R.drawable.ic_launcher),
+                mIndex.get(R.drawable.ic_launcher));
+    }
+
+}
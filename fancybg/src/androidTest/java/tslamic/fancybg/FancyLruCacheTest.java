@@ -62,4 +62,114 @@ public class FancyLruCacheTest extends AndroidTestCase {
         Assert.assertTrue(mBitmap.isRecycled());
     }
 
+    public void testTrimToSize() throws Exception {
+        final Bitmap snd = Bitmap.createBitmap(mBitmap.getWidth(),
+                mBitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        mCache.put(0, mBitmap);
+        mCache.put(1, snd);
+        mCache.get(0);
+        mCache.trimToSize(mCache.getSize() - 1);
+
+        Assert.assertEquals(mBitmap, mCache.get(0));
+        Assert.assertNull(mCache.get(1));
+        Assert.assertTrue(snd.isRecycled());
+    }
+
+    public void testGetAndRetain() throws Exception {
+        final FancyBitmapPool pool = new FancyBitmapPool(0);
+        final FancyLruCache cache = new FancyLruCache(getContext(),
+                FancyLruCache.DEFAULT_CACHE_PERCENTAGE, pool);
+        cache.put(0, mBitmap);
+
+        Assert.assertEquals(mBitmap, cache.getAndRetain(0, pool));
+        cache.clear();
+        Assert.assertFalse(mBitmap.isRecycled());
+
+        pool.release(mBitmap);
+        Assert.assertTrue(mBitmap.isRecycled());
+    }
+
+    public void testGetAndRetainFromNextTier() throws Exception {
+        final FancyBitmapPool pool = new FancyBitmapPool(0);
+        final FancyLruCache next = new FancyLruCache(getContext(),
+                FancyLruCache.DEFAULT_CACHE_PERCENTAGE, pool);
+        final FancyLruCache cache = new FancyLruCache(getContext(),
+                FancyLruCache.DEFAULT_CACHE_PERCENTAGE, pool, next);
+        next.put(0, mBitmap);
+
+        Assert.assertEquals(mBitmap, cache.getAndRetain(0, pool));
+        Assert.assertEquals(cache.getMissCount(), 1);
+        cache.clear();
+        next.clear();
+        Assert.assertFalse(mBitmap.isRecycled());
+
+        pool.release(mBitmap);
+        Assert.assertTrue(mBitmap.isRecycled());
+    }
+
+    public void testAccessOrder() throws Exception {
+        final FancyLruCache cache = new FancyLruCache(getContext(), 1);
+        final int side = (int) Math.sqrt(cache.getMaxSize() / 3 / 4) + 1;
+
+        final Bitmap fst = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+        final Bitmap snd = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+        final Bitmap trd = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+
+        cache.put(0, fst);
+        cache.put(1, snd);
+        cache.get(0);
+        cache.put(2, trd);
+
+        Assert.assertEquals(fst, cache.get(0));
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(trd, cache.get(2));
+        Assert.assertTrue(snd.isRecycled());
+
+        cache.clear();
+    }
+
+    public void testPutCountingEvictions() throws Exception {
+        final FancyLruCache cache = new FancyLruCache(getContext(), 1);
+        final int side = (int) Math.sqrt(cache.getMaxSize() / 3 / 4) + 1;
+
+        final Bitmap fst = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+        final Bitmap snd = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+        final Bitmap trd = Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888);
+        final Bitmap big = Bitmap.createBitmap(side * 2, side * 2,
+                Bitmap.Config.ARGB_8888);
+
+        Assert.assertEquals(cache.putCountingEvictions(0, fst), 0);
+        Assert.assertEquals(cache.putCountingEvictions(1, snd), 0);
+        Assert.assertEquals(cache.putCountingEvictions(2, trd), 1);
+        Assert.assertEquals(cache.putCountingEvictions(3, big), -1);
+
+        cache.clear();
+        big.recycle();
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int key = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap bitmap = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+                    for (int j = 0; j < 1000; j++) {
+                        mCache.put(key, bitmap);
+                        mCache.get(key);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(mCache.getSize(), threads.length * 8 * 8 * 4);
+        mCache.clear();
+        Assert.assertEquals(mCache.getSize(), 0);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FancyRequestTest extends AndroidTestCase {
+
+    private Bitmap mBitmap;
+    private AtomicInteger mLoads;
+    private FancyRequest mRequest;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mBitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        mLoads = new AtomicInteger();
+        mRequest = new FancyRequest(new FancyRequest.Loader() {
+            @Override
+            public Bitmap load(FancyRequest request) {
+                mLoads.incrementAndGet();
+                return mBitmap;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mBitmap.recycle();
+        mBitmap = null;
+        mRequest = null;
+    }
+
+    public void testLoadsOnce() throws Exception {
+        mRequest.run();
+        mRequest.run();
+
+        Assert.assertSame(mBitmap, mRequest.get());
+        Assert.assertSame(mBitmap, mRequest.get());
+        Assert.assertEquals(1, mLoads.get());
+    }
+
+    public void testCancel() throws Exception {
+        mRequest.cancel();
+        mRequest.run();
+
+        Assert.assertTrue(mRequest.isCancelled());
+        Assert.assertNull(mRequest.get());
+        Assert.assertEquals(0, mLoads.get());
+    }
+
+    public void testAttachCancelled() throws Exception {
+        mRequest.cancel();
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        Assert.assertFalse(mRequest.attach(options));
+        Assert.assertTrue(options.mCancel);
+    }
+
+    public void testNullLoader() throws Exception {
+        try {
+            new FancyRequest(null);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+}
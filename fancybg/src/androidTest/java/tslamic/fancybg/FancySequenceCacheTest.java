@@ -0,0 +1,52 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+public class FancySequenceCacheTest extends AndroidTestCase {
+
+    private static final int[] SEQUENCE = {10, 11, 12, 13};
+    private static final int CYCLES = 5;
+
+    public void testCyclicHits() throws Exception {
+        final FancySequenceCache cache = new FancySequenceCache(getContext(), 1, null, null);
+        cache.setSequence(SEQUENCE);
+
+        /*
+         * Two Bitmaps fit in the cache, so at least one of every four ticks
+         * hits once warmed up, unlike with LRU.
+         */
+        Assert.assertTrue(countHits(cache) >= CYCLES - 1);
+        cache.clear();
+    }
+
+    public void testLruCyclicHits() throws Exception {
+        final FancyLruCache cache = new FancyLruCache(getContext(), 1);
+
+        Assert.assertEquals(countHits(cache), 0);
+        cache.clear();
+    }
+
+    private static int countHits(FancyCache cache) {
+        final int side = (int) Math.sqrt(cache.getMaxSize() / 3 / 4) + 1;
+
+        int hits = 0;
+        for (int i = 0; i < SEQUENCE.length * CYCLES; i++) {
+            final int position = i % SEQUENCE.length;
+            if (cache instanceof FancySequenceCache) {
+                ((FancySequenceCache) cache).setPosition(position);
+            }
+            final long key = FancyKey.of(SEQUENCE[position], 0, 0);
+            if (null == cache.get(key)) {
+                cache.put(key, Bitmap.createBitmap(side, side, Bitmap.Config.ARGB_8888));
+            } else {
+                hits++;
+            }
+        }
+
+        return hits;
+    }
+
+}
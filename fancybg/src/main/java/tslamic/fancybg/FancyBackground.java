@@ -1,27 +1,34 @@
 package tslamic.fancybg;
 
+import android.app.Activity;
+import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.Message;
-import android.text.TextUtils;
-import android.util.TypedValue;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
-import android.widget.ImageSwitcher;
 import android.widget.ImageView;
 
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FancyBackground {
 
+    /*
+     * Drawables shown within a frame of their deadline are on time.
+     */
+    private static final long FRAME_NANOS = 16666667L;
+
     /**
      * Listens to FancyBackground events.
      */
@@ -51,11 +58,23 @@ public class FancyBackground {
 
     }
 
-    /*
-     * The minimum interval duration required to preload Bitmaps,
-     * if caching is enabled.
+    /**
+     * Optionally implemented by a
+     * {@link tslamic.fancybg.FancyBackground.FancyListener} to also learn
+     * about Drawables shown late. Invoked on the main thread.
      */
-    private static final int PRELOAD_THRESHOLD = 500;
+    public interface FancyDeadlineListener {
+
+        /**
+         * Invoked when a Drawable couldn't be shown on time, typically
+         * because decoding it took longer than the interval. Intervals missed
+         * entirely are skipped rather than caught up on.
+         *
+         * @param lateMillis how late the Drawable was shown.
+         */
+        void onDeadlineMissed(FancyBackground bg, long lateMillis);
+
+    }
 
     /**
      * Creates a new {@link tslamic.fancybg.FancyBackground.Builder}
@@ -78,10 +97,29 @@ public class FancyBackground {
 
         private ImageView.ScaleType mScale = ImageView.ScaleType.FIT_XY;
         private FancyListener mListener;
+        private FancyMetrics mMetrics;
         private Animation mOutAnimation;
         private Animation mInAnimation;
         private long mInterval = 3000;
+        private int mParallelism = 1;
         private boolean mLoop = true;
+        private boolean mExact;
+        private boolean mDither;
+        private boolean mRasterize;
+        private boolean mProgressive;
+        private boolean mProgressiveMisses;
+        private boolean mCrossFade;
+        private boolean mPrerender;
+        private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+        private boolean mDefaultCache = true;
+        private boolean mDefaultPool = true;
+        private boolean mSequenceEviction;
+        private int mDiskCacheSize;
+        private int mCompressedCacheSize;
+        private int mDirectCacheSize;
+        private ScheduledExecutorService mExecutor;
+        private Activity mActivity;
+        private FancyBitmapPool mPool;
         private FancyCache mCache;
         private int[] mDrawables;
         private Matrix mMatrix;
@@ -92,7 +130,6 @@ public class FancyBackground {
          */
         private Builder(final View view) {
             mView = view;
-            mCache = new FancyLruCache(view.getContext());
         }
 
         /**
@@ -161,24 +198,36 @@ public class FancyBackground {
         /**
          * Sets the millisecond interval a Drawable will be displayed for.
          *
-         * @param millis millisecond mInterval.
+         * @param millis millisecond mInterval, must be positive.
          */
         public Builder interval(final long millis) {
-            if (millis < 0) {
-                throw new IllegalArgumentException("negative interval");
+            if (millis <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
             }
             mInterval = millis;
             return this;
         }
 
         /**
-         * Sets the {@link tslamic.fancybg.FancyBackground.FancyListener}.
+         * Sets the {@link tslamic.fancybg.FancyBackground.FancyListener}. If
+         * it also implements
+         * {@link tslamic.fancybg.FancyBackground.FancyDeadlineListener}, it's
+         * told about Drawables shown late as well.
          */
         public Builder listener(final FancyListener listener) {
             mListener = listener;
             return this;
         }
 
+        /**
+         * Sets the {@link tslamic.fancybg.FancyMetrics} receiving cache,
+         * decoding and display timing events.
+         */
+        public Builder metrics(final FancyMetrics metrics) {
+            mMetrics = metrics;
+            return this;
+        }
+
         /**
          * Controls how the Drawables should be resized or moved to match the
          * size of the view FancyBackground will be animating on.
@@ -206,15 +255,238 @@ public class FancyBackground {
             return this;
         }
 
+        /**
+         * Determines if Bitmaps should be decoded at exactly the size the view
+         * draws them at for the set scale type, instead of only being
+         * subsampled by an integer factor. Saves memory, up to 4x per Bitmap,
+         * at the cost of a slightly more expensive decode. Has no effect with
+         * a custom matrix. Defaults to false.
+         */
+        public Builder exact(final boolean exact) {
+            mExact = exact;
+            return this;
+        }
+
+        /**
+         * Sets the config Bitmaps are decoded to. Defaults to ARGB_8888.
+         */
+        public Builder config(final Bitmap.Config config) {
+            if (null == config) {
+                throw new IllegalArgumentException("config is null");
+            }
+            mConfig = config;
+            return this;
+        }
+
+        /**
+         * Decodes opaque sources, i.e. JPEGs and PNGs without transparency,
+         * to RGB_565 and the rest to ARGB_8888. Opaque Bitmaps take half the
+         * memory, so twice as many fit in the cache.
+         *
+         * @param dither true to dither the reduced precision Bitmaps, which
+         *               hides banding in gradients.
+         */
+        public Builder autoConfig(final boolean dither) {
+            mConfig = null;
+            mDither = dither;
+            return this;
+        }
+
+        /**
+         * Determines if the scale type or matrix should be applied to the
+         * decoded Bitmaps in the background, ahead of time, caching Bitmaps
+         * of exactly the view size. Animating those doesn't resample a larger
+         * Bitmap on every frame on the main thread. XML Drawables are
+         * rasterized to the view size as well. Defaults to false.
+         */
+        public Builder prerender(final boolean prerender) {
+            mPrerender = prerender;
+            return this;
+        }
+
+        /**
+         * Determines if the Drawables should be drawn on a single view that
+         * cross-fades between them, instead of two stacked views animated by
+         * the in and out animations. Cheaper, as swapping Drawables doesn't
+         * trigger layout and nothing is overdrawn, but it only fades, for the
+         * longer of the in and out animation durations. Defaults to false.
+         */
+        public Builder crossFade(final boolean crossFade) {
+            mCrossFade = crossFade;
+            return this;
+        }
+
+        /**
+         * Shows a coarse preview of the first image as soon as possible,
+         * replacing it with the full quality one, without animating, once
+         * decoded. Avoids a blank background on cold starts.
+         *
+         * @param everyMiss true to do the same whenever an image about to be
+         *                  shown isn't cached, false for the first one only.
+         */
+        public Builder progressive(final boolean everyMiss) {
+            mProgressive = true;
+            mProgressiveMisses = everyMiss;
+            return this;
+        }
+
+        /**
+         * Determines if XML Drawables, e.g. shapes, gradients and
+         * layer-lists, should be drawn once into a Bitmap of the view size
+         * and cached like decoded images, instead of being drawn on every
+         * frame. The Drawables are stretched to the view size. Defaults to
+         * false, in which case the inflated Drawables are still shared across
+         * intervals through their constant state.
+         */
+        public Builder rasterize(final boolean rasterize) {
+            mRasterize = rasterize;
+            return this;
+        }
+
         /**
          * Sets the {@link tslamic.fancybg.FancyCache}. Use null to disable
          * caching.
+         * <p/>
+         * By default, all FancyBackground instances share a single cache
+         * within one byte budget, unless set up with their own pool, a disk
+         * cache or sequence eviction. The shared cache is only cleared once
+         * every FancyBackground using it has halted.
          */
         public Builder cache(final FancyCache cache) {
+            mDefaultCache = false;
             mCache = cache;
             return this;
         }
 
+        /**
+         * Backs the default cache with a {@link tslamic.fancybg.FancyDiskCache}
+         * of the given size, so subsampled Bitmaps survive restarts and warm
+         * starts don't decode again. Use 0 to disable, which is the default.
+         * Has no effect if a custom cache is set.
+         * <p/>
+         * The disk cache is shared by all FancyBackground instances, the
+         * size given first applies.
+         *
+         * @param bytes the maximum number of bytes stored on disk.
+         */
+        public Builder diskCache(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("negative disk cache size");
+            }
+            mDiskCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Backs the default cache with a
+         * {@link tslamic.fancybg.FancyCompressedCache} of the given size,
+         * holding the decoded Bitmaps recompressed. Lets slideshows of many
+         * Drawables keep all of them in memory, so a cache miss only costs a
+         * small decode. Use 0 to disable, which is the default. Has no effect
+         * if a custom cache is set.
+         *
+         * @param bytes the maximum number of compressed bytes held.
+         */
+        public Builder compressedCache(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("negative compressed cache size");
+            }
+            mCompressedCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Backs the default cache with a
+         * {@link tslamic.fancybg.FancyDirectCache} of the given size, holding
+         * the decoded pixels outside the Java heap. Its budget is separate
+         * from the heap share of the default cache, so it can be much larger
+         * without adding GC pressure. Use 0 to disable, which is the default.
+         * Has no effect if a custom cache is set.
+         *
+         * @param bytes the maximum number of bytes stored off the heap.
+         */
+        public Builder directCache(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("negative direct cache size");
+            }
+            mDirectCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Determines if the default cache should evict the Bitmap whose next
+         * use is furthest in the future, instead of the least recently used
+         * one. Beneficial when cycling through more Drawables than fit in the
+         * cache. Has no effect if a custom cache is set; use a
+         * {@link tslamic.fancybg.FancySequenceCache} instead. Defaults to
+         * false.
+         */
+        public Builder sequenceEviction(final boolean enabled) {
+            mSequenceEviction = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the {@link tslamic.fancybg.FancyBitmapPool} used to reuse
+         * Bitmap memory when decoding. Use null to disable pooling. By
+         * default, all FancyBackground instances using the default cache
+         * share a single pool, and nothing is pooled with a custom cache.
+         * <p/>
+         * The default cache feeds its evicted Bitmaps into this pool. A custom
+         * cache should be given the same pool to benefit from reuse.
+         */
+        public Builder pool(final FancyBitmapPool pool) {
+            mDefaultPool = false;
+            mPool = pool;
+            return this;
+        }
+
+        /**
+         * Sets the executor used to schedule the intervals, to decode the
+         * Drawables, and to compress them for a compressed cache. By
+         * default, all FancyBackground instances share a single executor
+         * with a small, bounded number of threads.
+         * <p/>
+         * The executor is shared, so it is never shut down by the
+         * FancyBackground.
+         */
+        public Builder executor(final ScheduledExecutorService executor) {
+            if (null == executor) {
+                throw new IllegalArgumentException("executor is null");
+            }
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of Drawables this FancyBackground may
+         * preload at the same time, in addition to decoding the one about to
+         * be shown. The shared executor thread count still bounds the overall
+         * parallelism. Defaults to 1.
+         */
+        public Builder parallelism(final int decodes) {
+            if (decodes < 1) {
+                throw new IllegalArgumentException("parallelism must be positive");
+            }
+            mParallelism = decodes;
+            return this;
+        }
+
+        /**
+         * Ties the FancyBackground to the lifecycle of the given Activity: it
+         * pauses when the Activity is paused, resumes when it's resumed, and
+         * halts when it's destroyed. Has no effect before Ice Cream Sandwich,
+         * call {@link tslamic.fancybg.FancyBackground#pause()} and
+         * {@link tslamic.fancybg.FancyBackground#resume()} manually there.
+         */
+        public Builder lifecycle(final Activity activity) {
+            if (null == activity) {
+                throw new IllegalArgumentException("activity is null");
+            }
+            mActivity = activity;
+            return this;
+        }
+
         /**
          * Completes the building process, returns a new FancyBackground
          * instance and starts the loop.
@@ -227,6 +499,46 @@ public class FancyBackground {
             if (null == mDrawables || mDrawables.length < 2) {
                 throw new IllegalArgumentException("at least two drawables required");
             }
+            if (null == mExecutor) {
+                mExecutor = FancyExecutors.getDefault();
+            }
+            if (mDefaultPool && mDefaultCache) {
+                mPool = FancyCaches.getDefaultPool(mView.getContext());
+            }
+            if (null == mPool) {
+                /*
+                 * Keeps nothing for reuse, but still keeps the cache from
+                 * recycling the Bitmaps while they are displayed.
+                 */
+                mPool = new FancyBitmapPool(0);
+            }
+            if (mDefaultCache) {
+                final Context context = mView.getContext();
+                FancyCache next = mDiskCacheSize > 0 ?
+                        FancyCaches.getDiskCache(context, mDiskCacheSize,
+                        mExecutor) : null;
+                if (mCompressedCacheSize > 0) {
+                    next = new FancyCompressedCache(mCompressedCacheSize,
+                            FancyCompressedCache.DEFAULT_QUALITY, mPool, next,
+                            mExecutor);
+                }
+                if (mDirectCacheSize > 0) {
+                    next = new FancyDirectCache(mDirectCacheSize, mPool, next);
+                }
+                final int percentage = FancyLruCache.DEFAULT_CACHE_PERCENTAGE;
+                if (mSequenceEviction) {
+                    mCache = new FancySequenceCache(context, percentage, mPool, next);
+                } else if (null != next || !FancyCaches.isShared(mPool)
+                        || (mPrerender && null != mMatrix)) {
+                    /*
+                     * Custom matrices aren't part of the cache keys, so
+                     * Bitmaps rendered through one can't be shared.
+                     */
+                    mCache = new FancyLruCache(context, percentage, mPool, next);
+                } else {
+                    mCache = FancyCaches.getDefault(context);
+                }
+            }
             return new FancyBackground(this);
         }
 
@@ -234,6 +546,8 @@ public class FancyBackground {
 
     public final ImageView.ScaleType scale;
     public final FancyListener listener;
+    public final FancyMetrics metrics;
+    public final FancyBitmapPool pool;
     public final Animation outAnimation;
     public final Animation inAnimation;
     public final FancyCache cache;
@@ -243,12 +557,41 @@ public class FancyBackground {
     public final View view;
 
     private final ScheduledExecutorService mExecutor;
-    private final BitmapFactory.Options mOptions;
-    private final TypedValue mTypedValue;
+    private final FancyQueue mQueue;
+    private final AtomicBoolean mHalted;
+    private final AtomicBoolean mPaused;
+    private final FancyQueue mDecodeQueue;
+    private final FancyDecoder mDecoder;
+    private final FancyIndex mMetadata;
+    private final FancyPrefetcher mPrefetcher;
+    private final ConcurrentHashMap<Long, FancyRequest> mRequests;
+    private final ConcurrentLinkedQueue<Bitmap> mHandoffs;
+    private final ConcurrentHashMap<Integer, Drawable.ConstantState> mStates;
     private final Resources mResources;
     private final int[] mDrawables;
-
-    private ImageSwitcher mSwitcher;
+    private final boolean mRasterize;
+    private final boolean mProgressive;
+    private final boolean mProgressiveMisses;
+    private final boolean mCrossFade;
+    private final FancyPrerender mPrerender;
+    private final long mIntervalNanos;
+    private final int mVariant;
+    private final FancyLifecycle mLifecycle;
+    private final FancyMemory mMemory;
+    private final boolean mShared;
+
+    private volatile ScheduledFuture<?> mTicker;
+    private volatile long mTickNanos;
+    private volatile boolean mHidden;
+    private volatile long mDeadline;
+    private volatile int mGeneration;
+    private long mRemainingNanos;
+    private long mShowAt;
+    private boolean mStarted;
+    private boolean mTicking;
+    private FancyRenderer mRenderer;
+    private boolean mShown;
+    private boolean mRefining;
     private int mIndex = -1;
 
     /*
@@ -258,19 +601,87 @@ public class FancyBackground {
         outAnimation = builder.mOutAnimation;
         inAnimation = builder.mInAnimation;
         listener = builder.mListener;
+        metrics = builder.mMetrics;
         interval = builder.mInterval;
+        mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
         cache = builder.mCache;
+        pool = builder.mPool;
         scale = builder.mScale;
         loop = builder.mLoop;
         view = builder.mView;
 
-        mExecutor = Executors.newSingleThreadScheduledExecutor();
-        mOptions = new BitmapFactory.Options();
+        mExecutor = builder.mExecutor;
+        mQueue = new FancyQueue(mExecutor, 1);
+        mHalted = new AtomicBoolean();
+        mPaused = new AtomicBoolean();
         mResources = view.getResources();
-        mTypedValue = new TypedValue();
+        mDecodeQueue = new FancyQueue(mExecutor, builder.mParallelism);
+        mPrefetcher = null == cache ? null : new FancyPrefetcher(interval,
+                builder.mDrawables.length, cache.getMaxSize());
+        mRequests = new ConcurrentHashMap<Long, FancyRequest>();
+        mHandoffs = new ConcurrentLinkedQueue<Bitmap>();
+        mStates = new ConcurrentHashMap<Integer, Drawable.ConstantState>();
+        mRasterize = builder.mRasterize || builder.mPrerender;
+        mProgressive = builder.mProgressive;
+        mProgressiveMisses = builder.mProgressiveMisses;
+        mCrossFade = builder.mCrossFade;
+        mDecoder = new FancyDecoder(mResources, pool, scale, builder.mExact,
+                builder.mConfig, builder.mDither);
+        mMetadata = new FancyIndex(mDecoder);
+        if (builder.mPrerender) {
+            mPrerender = new FancyPrerender(scale, builder.mMatrix,
+                    mResources.getDisplayMetrics(), pool);
+            mVariant = mPrerender.getVariant();
+        } else {
+            mPrerender = null;
+            mVariant = mDecoder.getVariant();
+        }
         mDrawables = builder.mDrawables;
         matrix = builder.mMatrix;
 
+        mShared = FancyCaches.isShared(cache) || FancyCaches.isShared(pool);
+        if (mShared) {
+            FancyCaches.acquire(this);
+        }
+        if (cache instanceof FancySequenceCache) {
+            ((FancySequenceCache) cache).setSequence(mDrawables);
+        }
+        /*
+         * The shared cache and pool are trimmed once for all their users.
+         */
+        if ((hasCache() && !FancyCaches.isShared(cache))
+                || (hasPool() && !FancyCaches.isShared(pool))) {
+            mMemory = FancyMemory.register(new FancyMemory.Trimmable() {
+                @Override
+                public void trimMemory(boolean critical) {
+                    FancyBackground.this.trimMemory(critical);
+                }
+            }, view.getContext());
+        } else {
+            mMemory = null;
+        }
+        if (null != builder.mActivity) {
+            mLifecycle = FancyLifecycle.register(this, builder.mActivity);
+        } else {
+            mLifecycle = null;
+        }
+
+        /*
+         * Indexed in this instance's queue, so it's done before the first
+         * tick.
+         */
+        mQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                FancyTrace.begin("FancyBackground.index");
+                try {
+                    mMetadata.build(mDrawables);
+                } finally {
+                    FancyTrace.end();
+                }
+            }
+        });
+
         view.post(new Runnable() {
             @Override
             public void run() {
@@ -285,21 +696,109 @@ public class FancyBackground {
      */
     private void init() {
         final ViewGroup group = getViewGroup(view);
-        mSwitcher = new FancyImageSwitcher(this);
-        group.addView(mSwitcher, 0, view.getLayoutParams());
+        final View renderer;
+        if (mCrossFade) {
+            renderer = new FancyCrossFadeView(this);
+        } else {
+            renderer = new FancyImageSwitcher(this);
+        }
+        group.addView(renderer, 0, view.getLayoutParams());
+        mRenderer = (FancyRenderer) renderer;
         start();
     }
 
     private void start() {
+        if (mHalted.get()) {
+            return;
+        }
         if (hasListener()) {
             listener.onStarted(this);
         }
-        mExecutor.scheduleAtFixedRate(new Runnable() {
+        mStarted = true;
+        updateSchedule();
+    }
+
+    /*
+     * Ticks only while started, not paused and visible. Invoked on the main
+     * thread whenever any of these change.
+     */
+    private void updateSchedule() {
+        final boolean tick = mStarted && !mPaused.get() && !mHidden
+                && !mHalted.get();
+        if (tick == mTicking) {
+            return;
+        }
+        mTicking = tick;
+
+        mGeneration++;
+        if (tick) {
+            /*
+             * Resume showing the current Drawable for the rest of its
+             * interval, and get the upcoming ones ready just in time.
+             */
+            if (null == mTicker) {
+                schedule(System.nanoTime(), mGeneration);
+            } else {
+                schedule(System.nanoTime() + mRemainingNanos, mGeneration);
+                if (hasPrefetcher()) {
+                    mQueue.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mIndex >= 0) {
+                                prefetch(mIndex);
+                            }
+                        }
+                    });
+                }
+            }
+        } else if (null != mTicker) {
+            mTicker.cancel(false);
+            mRemainingNanos = Math.max(0, mDeadline - System.nanoTime());
+            mQueue.clear();
+            mDecodeQueue.clear();
+            mRequests.clear();
+        }
+    }
+
+    /*
+     * Schedules the tick showing the next Drawable at the given deadline, in
+     * System.nanoTime() terms. The tick starts ahead of the deadline by the
+     * measured decode time, so the Drawable is ready when it's due.
+     */
+    private void schedule(final long deadline, final int generation) {
+        if (generation == mGeneration) {
+            mDeadline = deadline;
+        }
+
+        long lead = 0;
+        if (hasPrefetcher()) {
+            lead = Math.min(mPrefetcher.getDecodeNanos(), mIntervalNanos);
+        }
+        final long delay = Math.max(0, deadline - lead - System.nanoTime());
+
+        /*
+         * The shared executor only triggers the ticks, the work itself is
+         * done in this instance's queue.
+         */
+        final Runnable update = new Runnable() {
             @Override
             public void run() {
-                updateDrawable();
+                updateDrawable(deadline, generation);
             }
-        }, 0, interval, TimeUnit.MILLISECONDS);
+        };
+        mTicker = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mQueue.execute(update);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+
+        /*
+         * Halted, paused or hidden while scheduling.
+         */
+        if (mHalted.get() || generation != mGeneration) {
+            mTicker.cancel(false);
+        }
     }
 
     /**
@@ -321,16 +820,85 @@ public class FancyBackground {
     }
 
     /**
-     * Stops the looping and releases the cached resources, if any.
+     * Stops showing new Drawables and preloading upcoming ones, but keeps the
+     * cached Bitmaps, so {@link #resume()} continues where this left off
+     * without decoding again. Must be called on the main thread.
+     */
+    public void pause() {
+        if (mPaused.compareAndSet(false, true)) {
+            updateSchedule();
+        }
+    }
+
+    /**
+     * Resumes a paused FancyBackground. The current Drawable is shown for the
+     * rest of its interval before the next one. Must be called on the main
+     * thread.
+     */
+    public void resume() {
+        if (mPaused.compareAndSet(true, false)) {
+            updateSchedule();
+        }
+    }
+
+    /**
+     * Returns true if paused, false otherwise.
+     */
+    public final boolean isPaused() {
+        return mPaused.get();
+    }
+
+    /*
+     * Invoked by the renderer on the main thread when it's scrolled in or
+     * out of view, or its window or an ancestor is shown or hidden.
+     */
+    void setVisible(final boolean visible) {
+        mHidden = !visible;
+        updateSchedule();
+    }
+
+    /**
+     * Stops the looping and clears its own cache and pool, if any. The
+     * shared default cache and pool are only cleared once every
+     * FancyBackground using them has halted.
      */
     public void halt() {
         halt(false);
     }
 
     private void halt(boolean isLoopDone) {
-        mExecutor.shutdownNow();
-        if (hasCache()) {
-            cache.clear();
+        if (mHalted.compareAndSet(false, true)) {
+            if (null != mTicker) {
+                mTicker.cancel(false);
+            }
+            if (null != mLifecycle) {
+                mLifecycle.unregister();
+            }
+            if (null != mMemory) {
+                mMemory.unregister();
+            }
+            mQueue.clear();
+            mDecodeQueue.clear();
+            for (FancyRequest request : mRequests.values()) {
+                request.cancel();
+            }
+            mRequests.clear();
+            if (hasPool()) {
+                releaseHandoffs(Integer.MAX_VALUE);
+            }
+            /*
+             * The shared cache and pool outlive this instance, other
+             * instances may still use them.
+             */
+            if (hasCache() && !FancyCaches.isShared(cache)) {
+                cache.clear();
+            }
+            if (hasPool() && !FancyCaches.isShared(pool)) {
+                pool.clear();
+            }
+            if (mShared) {
+                FancyCaches.release(this);
+            }
         }
         if (hasListener()) {
             if (isLoopDone) {
@@ -341,15 +909,179 @@ public class FancyBackground {
         }
     }
 
+    /*
+     * Shrinks the cache to the Bitmaps about to be shown, or if critical, to
+     * about a single one, also dropping the pooled Bitmaps. The shared cache
+     * and pool are left to FancyCaches.
+     */
+    void trimMemory(final boolean critical) {
+        if (mHalted.get()) {
+            return;
+        }
+        if (hasCache() && !FancyCaches.isShared(cache)) {
+            final int bytes = getTrimBytes(critical);
+            if (bytes > 0) {
+                cache.trimToSize(bytes);
+            }
+        }
+        if (critical && hasPool() && !FancyCaches.isShared(pool)) {
+            pool.clear();
+        }
+    }
+
+    /*
+     * Returns the number of cached bytes needed for the Bitmaps about to be
+     * shown, or if critical, for about a single one. Returns 0 if unknown.
+     */
+    int getTrimBytes(final boolean critical) {
+        if (!hasCache()) {
+            return 0;
+        }
+        final int count = critical ? 1 : 1 + mPrefetcher.getWindow();
+        int bytes = mPrefetcher.getBytes(count);
+        if (bytes <= 0) {
+            /*
+             * Nothing measured yet, estimate from the current Drawable
+             * instead of emptying the cache. It was shown already, so its
+             * metadata is indexed.
+             */
+            final int index = mIndex;
+            if (index >= 0) {
+                bytes = count * mMetadata.get(mDrawables[index]).getByteCount(
+                        view.getMeasuredWidth(), view.getMeasuredHeight());
+            }
+        }
+        return Math.max(bytes, 0);
+    }
+
     /*
      * Runs in a worker thread.
      */
-    private void updateDrawable() {
-        final Drawable drawable = getNext();
-        if (null != drawable) {
-            final Message msg = mSwitcher.getHandler().obtainMessage();
-            msg.obj = drawable;
-            msg.sendToTarget();
+    private void updateDrawable(final long due, final int generation) {
+        if (mHalted.get() || generation != mGeneration) {
+            return;
+        }
+        FancyTrace.begin("FancyBackground.tick");
+        try {
+            final long start = System.nanoTime();
+            mTickNanos = start;
+
+            /*
+             * Deadlines that already passed by more than an interval are
+             * skipped, rather than caught up on back-to-back.
+             */
+            long deadline = due;
+            if (start - deadline > mIntervalNanos) {
+                deadline += (start - deadline) / mIntervalNanos * mIntervalNanos;
+            }
+            mShowAt = deadline;
+
+            /*
+             * The first Drawable is due right away, it can't be on time.
+             */
+            final boolean first = !mShown;
+            final int handoffs = mHandoffs.size();
+            mRefining = false;
+            final Drawable drawable = getNext();
+            if (null != drawable) {
+                show(drawable, mRefining);
+            }
+            releaseHandoffs(handoffs);
+
+            final long late = System.nanoTime() - due;
+            if (!first && late > FRAME_NANOS && !mHalted.get()) {
+                onDeadlineMissed(TimeUnit.NANOSECONDS.toMillis(late));
+            }
+            schedule(deadline + mIntervalNanos, generation);
+        } finally {
+            FancyTrace.end();
+        }
+    }
+
+    /*
+     * Releases the given number of the oldest hand-off retains. The ones
+     * taken before a tick started are only released after it had the
+     * chance to retain its own Bitmap.
+     */
+    private void releaseHandoffs(int count) {
+        Bitmap bitmap;
+        while (count-- > 0 && null != (bitmap = mHandoffs.poll())) {
+            pool.release(bitmap);
+        }
+    }
+
+    /*
+     * Hands the Drawable to the renderer to show at the current tick
+     * deadline, either as a new image, or as the full quality replacement of
+     * the preview just shown.
+     */
+    private void show(final Drawable drawable, final boolean refine) {
+        if (mHalted.get()) {
+            return;
+        }
+        final long delay = TimeUnit.NANOSECONDS.toMillis(mShowAt
+                - System.nanoTime());
+        mRenderer.show(drawable, refine, SystemClock.uptimeMillis() + delay);
+        mShown = true;
+    }
+
+    private void onDeadlineMissed(final long lateMillis) {
+        if (listener instanceof FancyDeadlineListener) {
+            final FancyDeadlineListener deadlineListener =
+                    (FancyDeadlineListener) listener;
+            view.post(new Runnable() {
+                @Override
+                public void run() {
+                    deadlineListener.onDeadlineMissed(FancyBackground.this,
+                            lateMillis);
+                }
+            });
+        }
+    }
+
+    /*
+     * Shows a coarse preview of the resource about to be decoded, if
+     * progressive. Runs in the tick queue.
+     */
+    private void showPreview(final FancyIndex.Entry entry) {
+        if (!mProgressive || (mShown && !mProgressiveMisses)) {
+            return;
+        }
+        final Bitmap preview;
+        FancyTrace.begin("FancyBackground.preview");
+        try {
+            preview = mDecoder.decodePreview(entry, view.getMeasuredWidth(),
+                    view.getMeasuredHeight());
+        } finally {
+            FancyTrace.end();
+        }
+        if (null != preview) {
+            show(new BitmapDrawable(mResources, prerender(preview)), false);
+            mRefining = true;
+        }
+    }
+
+    /*
+     * The scale type the renderer should use, FIT_XY if the Bitmaps are
+     * already rendered at the view size.
+     */
+    ImageView.ScaleType getDisplayScale() {
+        return null == mPrerender ? scale : ImageView.ScaleType.FIT_XY;
+    }
+
+    /*
+     * The matrix the renderer should use, if any.
+     */
+    Matrix getDisplayMatrix() {
+        return null == mPrerender ? matrix : null;
+    }
+
+    /*
+     * Invoked by the renderer on the main thread once a Drawable is set.
+     */
+    void onDisplayed() {
+        if (hasMetrics()) {
+            metrics.onDisplayed(this, System.nanoTime() - mTickNanos);
         }
     }
 
@@ -367,6 +1099,9 @@ public class FancyBackground {
         final Drawable drawable;
 
         mIndex = getNextDrawableIndex(mIndex);
+        if (cache instanceof FancySequenceCache) {
+            ((FancySequenceCache) cache).setPosition(mIndex);
+        }
         if (mIndex < 0) {
             drawable = null;
             halt(true);
@@ -374,135 +1109,395 @@ public class FancyBackground {
             drawable = getDrawable(mDrawables[mIndex]);
         }
 
-        if (hasCache() && interval > PRELOAD_THRESHOLD) {
-            final int next = getNextDrawableIndex(mIndex);
-            if (next > 0) {
-                preloadNext(next);
-            }
+        if (mIndex >= 0 && hasPrefetcher()) {
+            prefetch(mIndex);
         }
 
         return drawable;
     }
 
     /*
-     * Tries to preload the next image by loading and putting it in the cache.
-     * Assumes the cache is present.
+     * Preloads the upcoming images within the prefetch window, wrapping
+     * around if looping. Assumes the cache is present.
      */
-    private void preloadNext(final int next) {
-        final int resource = mDrawables[next];
-        if (isBitmap(resource)) {
-            mExecutor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    getBitmap(resource);
-                }
-            });
+    private void prefetch(final int current) {
+        final int window = mPrefetcher.getWindow();
+
+        int next = current;
+        for (int i = 0; i < window; i++) {
+            next = getNextDrawableIndex(next);
+            if (next < 0 || next == current) {
+                break;
+            }
+            preload(mDrawables[next]);
         }
     }
 
+    /*
+     * Tries to preload the image by loading and putting it in the cache,
+     * unless it's already being loaded.
+     */
+    private void preload(final int resource) {
+        if (!mRasterize && !mMetadata.get(resource).bitmap) {
+            return;
+        }
+        final long key = getKey(resource);
+        if (mRequests.containsKey(key)) {
+            return;
+        }
+        final FancyRequest request = newRequest(resource, key);
+        if (null == mRequests.putIfAbsent(key, request)) {
+            mDecodeQueue.execute(request);
+        }
+    }
+
+    /*
+     * Returns the loaded Bitmap of the resource. If it's already being
+     * loaded, e.g. preloaded, waits for that instead of loading it again.
+     */
+    private Bitmap load(final int resource, final long key) {
+        FancyRequest request = mRequests.get(key);
+        if (null == request) {
+            final FancyRequest created = newRequest(resource, key);
+            request = mRequests.putIfAbsent(key, created);
+            if (null == request) {
+                request = created;
+            }
+        }
+
+        /*
+         * Runs it right here if it's still waiting in the decode queue.
+         */
+        request.run();
+        return request.get();
+    }
+
+    private FancyRequest newRequest(final int resource, final long key) {
+        final FancyRequest.Loader loader = new FancyRequest.Loader() {
+            @Override
+            public Bitmap load(FancyRequest request) {
+                return getBitmap(resource, key, request);
+            }
+        };
+        return new FancyRequest(loader) {
+            @Override
+            protected void onDone() {
+                mRequests.remove(key, this);
+            }
+        };
+    }
+
     private Drawable getDrawable(final int resource) {
-        Bitmap bitmap;
+        Bitmap bitmap = null;
 
+        final long key = getKey(resource);
+        boolean retained = false;
         if (hasCache()) {
-            bitmap = cache.get(resource);
-            if (null != bitmap) {
-                return new BitmapDrawable(mResources, bitmap);
+            if (hasPool() && cache instanceof FancyLruCache) {
+                bitmap = ((FancyLruCache) cache).getAndRetain(key, pool);
+                retained = true;
+            } else {
+                bitmap = cache.get(key);
+            }
+            if (hasMetrics()) {
+                if (null == bitmap) {
+                    metrics.onCacheMiss(this, resource);
+                } else {
+                    metrics.onCacheHit(this, resource);
+                }
             }
         }
 
         final Drawable drawable;
-        if (isBitmap(resource)) {
-            bitmap = getBitmap(resource);
-            drawable = new BitmapDrawable(mResources, bitmap);
+        if (null != bitmap || mMetadata.get(resource).bitmap) {
+            if (null == bitmap) {
+                showPreview(mMetadata.get(resource));
+                bitmap = load(resource, key);
+                retained = false;
+                if (null == bitmap && mHalted.get()) {
+                    return null;
+                }
+            }
+            drawable = getBitmapDrawable(bitmap, retained);
+        } else if (mRasterize) {
+            bitmap = load(resource, key);
+            if (null == bitmap) {
+                drawable = newDrawable(resource);
+            } else {
+                drawable = getBitmapDrawable(bitmap, false);
+            }
         } else {
-            drawable = mResources.getDrawable(resource);
+            drawable = newDrawable(resource);
         }
 
         return drawable;
     }
 
-    private synchronized Bitmap getBitmap(final int resource) {
-        Bitmap bitmap = null;
+    private Drawable getBitmapDrawable(final Bitmap bitmap,
+                                       final boolean retained) {
+        /*
+         * The Bitmap is about to be shown - make sure its memory isn't
+         * reused until it's replaced. Loaded Bitmaps, including cache hits
+         * of the load, are still retained by their hand-off, so they
+         * couldn't have been reused yet either.
+         */
+        if (hasPool() && !retained) {
+            pool.retain(bitmap);
+        }
+        return new BitmapDrawable(mResources, bitmap);
+    }
 
-        final boolean hasCache = hasCache();
-        if (hasCache) {
-            bitmap = cache.get(resource);
+    /*
+     * Returns a new instance of the XML Drawable, sharing the constant state
+     * of the first one, so it's only inflated once.
+     */
+    private Drawable newDrawable(final int resource) {
+        final Drawable.ConstantState state = mStates.get(resource);
+        if (null != state) {
+            return state.newDrawable(mResources);
+        }
+
+        final Drawable drawable = mResources.getDrawable(resource);
+        final Drawable.ConstantState inflated = drawable.getConstantState();
+        if (null != inflated) {
+            mStates.putIfAbsent(resource, inflated);
+        }
+
+        return drawable;
+    }
+
+    /*
+     * Loads the Bitmap of a request. The cache is checked again, a preload
+     * may have put the Bitmap there since the caller missed it.
+     */
+    private Bitmap getBitmap(final int resource, final long key,
+                             final FancyRequest request) {
+        if (mHalted.get()) {
+            return null;
         }
 
+        Bitmap bitmap = null;
+        if (hasCache()) {
+            /*
+             * Like a loaded Bitmap, a hit is held by a hand-off until the end
+             * of the next tick, so it can't be reused before it's shown.
+             */
+            if (hasPool() && cache instanceof FancyLruCache) {
+                bitmap = ((FancyLruCache) cache).getAndRetain(key, pool);
+            } else {
+                bitmap = cache.get(key);
+                if (hasPool()) {
+                    pool.retain(bitmap);
+                }
+            }
+            if (null != bitmap && hasPool()) {
+                mHandoffs.add(bitmap);
+            }
+        }
         if (null == bitmap) {
-            final int w = view.getMeasuredWidth();
-            final int h = view.getMeasuredHeight();
+            if (mMetadata.get(resource).bitmap) {
+                bitmap = decodeBitmap(resource, key, request);
+            } else {
+                bitmap = rasterize(resource, key, request);
+            }
+        }
 
-            mOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeResource(mResources, resource, mOptions);
+        return bitmap;
+    }
+
+    /*
+     * Draws the XML Drawable into a Bitmap of the current view size and
+     * caches it. Returns null if the view isn't measured yet.
+     */
+    private Bitmap rasterize(final int resource, final long key,
+                             final FancyRequest request) {
+        final int w = view.getMeasuredWidth();
+        final int h = view.getMeasuredHeight();
+        if (w <= 0 || h <= 0) {
+            return null;
+        }
+
+        final Bitmap bitmap;
+        FancyTrace.begin("FancyBackground.rasterize");
+        try {
+            final Drawable drawable = newDrawable(resource);
+            bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            drawable.setBounds(0, 0, w, h);
+            drawable.draw(new Canvas(bitmap));
+        } finally {
+            FancyTrace.end();
+        }
+
+        if (hasCache() && !isDiscarded(request)) {
+            put(resource, key, bitmap);
+        }
+
+        return bitmap;
+    }
 
-            mOptions.inSampleSize = getSampleSize(mOptions, w, h);
-            mOptions.inJustDecodeBounds = false;
+    /*
+     * Decodes the Bitmap at the current view size and caches it.
+     */
+    private Bitmap decodeBitmap(final int resource, final long key,
+                                final FancyRequest request) {
+        final int w = view.getMeasuredWidth();
+        final int h = view.getMeasuredHeight();
+        final boolean hasCache = hasCache();
+        final long start = System.nanoTime();
+        final FancyIndex.Entry entry = mMetadata.get(resource);
 
+        Bitmap bitmap = null;
+        FancyTrace.begin("FancyBackground.decode");
+        try {
             /*
-             * Decoding, but not scaling - it's on scale variable to do that.
-             * If OOM error is thrown, try to recover by clearing the cache.
+             * Memory pressure is normally handled before it gets here. If an
+             * OOM error is thrown anyway, try to recover by trimming the
+             * cache down to about the current Bitmap.
              */
             try {
-                bitmap = BitmapFactory.decodeResource(mResources, resource, mOptions);
+                bitmap = mDecoder.decode(entry, w, h, request);
             } catch (OutOfMemoryError oom) {
                 if (hasCache) {
-                    cache.clear();
-                    bitmap = BitmapFactory.decodeResource(mResources, resource, mOptions);
+                    trimMemory(true);
+                    if (mShared) {
+                        FancyCaches.trimMemory(true);
+                    }
+                    bitmap = mDecoder.decode(entry, w, h, request);
+                }
+                if (hasMetrics()) {
+                    metrics.onOutOfMemory(this, null != bitmap);
                 }
             }
-
-            if (null != bitmap && hasCache) {
-                cache.put(resource, bitmap);
+        } finally {
+            FancyTrace.end();
+        }
+        /*
+         * Nobody is waiting for the Bitmap of a cancelled request, and the
+         * cache mustn't be filled once halted.
+         */
+        if (null != bitmap && isDiscarded(request)) {
+            if (hasPool()) {
+                pool.put(bitmap);
+            } else {
+                bitmap.recycle();
             }
+            return null;
+        }
+        if (null != bitmap) {
+            bitmap = prerender(bitmap);
+        }
+
+        final long nanos = System.nanoTime() - start;
+        if (hasMetrics()) {
+            metrics.onDecoded(this, resource, nanos);
+        }
+        if (null != bitmap && hasPrefetcher()) {
+            mPrefetcher.onDecoded(nanos, FancyBitmapPool.getAllocationSize(bitmap));
+        }
+
+        if (null != bitmap && hasCache && !isDiscarded(request)) {
+            put(resource, key, bitmap);
         }
 
         return bitmap;
     }
 
-    private synchronized boolean isBitmap(final int resource) {
-        boolean isBitmap = false;
+    /*
+     * Returns the Bitmap rendered at the view size, if pre-rendering, giving
+     * the decoded one back to the pool.
+     */
+    private Bitmap prerender(final Bitmap bitmap) {
+        final int w = view.getMeasuredWidth();
+        final int h = view.getMeasuredHeight();
+        if (null == mPrerender || w <= 0 || h <= 0) {
+            return bitmap;
+        }
+
+        final Bitmap rendered;
+        FancyTrace.begin("FancyBackground.prerender");
+        try {
+            rendered = mPrerender.render(bitmap, w, h);
+        } finally {
+            FancyTrace.end();
+        }
+        if (hasPool()) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+
+        return rendered;
+    }
 
-        mResources.getValue(resource, mTypedValue, true);
-        if (TypedValue.TYPE_STRING == mTypedValue.type) {
-            final String file = mTypedValue.string.toString();
-            if (TextUtils.isEmpty(file)) {
-                throw new IllegalArgumentException("not a Drawable id: " +
-                        mTypedValue.resourceId);
+    private void put(final int resource, final long key, final Bitmap bitmap) {
+        /*
+         * Once cached, the Bitmap may be evicted and reused before the tick
+         * waiting for it retains it. Hold it until the end of the next tick.
+         */
+        if (hasPool()) {
+            pool.retain(bitmap);
+            mHandoffs.add(bitmap);
+        }
+        FancyTrace.begin("FancyBackground.cache");
+        try {
+            /*
+             * Subclasses outside the library may override put, so count the
+             * evictions only of the library's own caches.
+             */
+            final Class<?> type = cache.getClass();
+            final int evicted;
+            if (FancyLruCache.class == type
+                    || FancySequenceCache.class == type) {
+                evicted = ((FancyLruCache) cache).putCountingEvictions(key,
+                        bitmap);
+            } else {
+                evicted = cache.put(key, bitmap) ? 0 : -1;
+            }
+            if (!hasMetrics()) {
+                return;
             }
-            isBitmap = !file.endsWith(".xml");
+            if (evicted < 0) {
+                metrics.onCachePutRejected(this, resource);
+            } else if (evicted > 0
+                    && metrics instanceof FancyMetrics.FancyEvictionMetrics) {
+                ((FancyMetrics.FancyEvictionMetrics) metrics)
+                        .onCacheEvicted(this, evicted);
+            }
+        } finally {
+            FancyTrace.end();
         }
+    }
+
+    private boolean isDiscarded(final FancyRequest request) {
+        return mHalted.get() || request.isCancelled();
+    }
 
-        return isBitmap;
+    /*
+     * The cache key for the resource decoded at the current view size.
+     */
+    private long getKey(final int resource) {
+        return FancyKey.of(resource, view.getMeasuredWidth(),
+                view.getMeasuredHeight(), mVariant);
     }
 
     private boolean hasListener() {
         return null != listener;
     }
 
-    private boolean hasCache() {
-        return null != cache;
+    private boolean hasMetrics() {
+        return null != metrics;
     }
 
-    private static int getSampleSize(BitmapFactory.Options options,
-                                     int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int sampleSize = 1;
+    private boolean hasPrefetcher() {
+        return null != mPrefetcher;
+    }
 
-        if (height > reqHeight || width > reqWidth) {
-            if (reqHeight == 0) {
-                sampleSize = (int) ((float) width / (float) reqWidth);
-            } else if (reqWidth == 0) {
-                sampleSize = (int) ((float) height / (float) reqHeight);
-            } else {
-                final int wSample = (int) ((float) width / (float) reqWidth);
-                final int hSample = (int) ((float) height / (float) reqHeight);
-                sampleSize = Math.max(wSample, hSample);
-            }
-        }
+    private boolean hasCache() {
+        return null != cache;
+    }
 
-        return sampleSize;
+    private boolean hasPool() {
+        return null != pool;
     }
 
     private static ViewGroup getViewGroup(View source) {
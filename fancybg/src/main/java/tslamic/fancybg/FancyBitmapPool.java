@@ -0,0 +1,373 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A size-bucketed pool of Bitmaps that are no longer cached, kept around
+ * so their pixel memory can be reused for decoding via
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ * <p/>
+ * On KitKat and above, any pooled Bitmap at least as large as the decoded
+ * one can be reused. On Honeycomb up to KitKat, the reused Bitmap must match
+ * the decoded dimensions exactly. Before Honeycomb, Bitmaps can't be reused
+ * and are simply recycled.
+ */
+public class FancyBitmapPool {
+
+    private static final int DEFAULT_POOL_PERCENTAGE = 10;
+
+    /*
+     * Pooled Bitmaps, bucketed by their allocation size in bytes.
+     */
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets;
+
+    /*
+     * Bitmaps currently displayed, with their display counts. These must not
+     * be reused until released.
+     */
+    private final IdentityHashMap<Bitmap, Integer> mInUse;
+
+    /*
+     * Bitmaps that were put in the pool while still displayed.
+     */
+    private final IdentityHashMap<Bitmap, Boolean> mPending;
+
+    private final int mMaxSize;
+    private int mSize;
+
+    /**
+     * Constructs a new instance targeting ~10% of the available heap.
+     */
+    public FancyBitmapPool(Context context) {
+        this(FancyLruCache.getDefaultCacheSize(context,
+                DEFAULT_POOL_PERCENTAGE));
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize the maximum number of bytes the pooled Bitmaps can
+     *                occupy.
+     */
+    public FancyBitmapPool(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("negative pool size");
+        }
+        mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+        mInUse = new IdentityHashMap<Bitmap, Integer>();
+        mPending = new IdentityHashMap<Bitmap, Boolean>();
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns true if Bitmaps can be reused on this device.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Offers a Bitmap that is no longer needed. The Bitmap is either pooled
+     * for reuse or recycled. If the Bitmap is still displayed, it is pooled
+     * only once released.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (null == bitmap) {
+            throw new IllegalArgumentException("pooling null bitmap");
+        }
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        if (mInUse.containsKey(bitmap)) {
+            mPending.put(bitmap, Boolean.TRUE);
+            return;
+        }
+
+        final int size = getAllocationSize(bitmap);
+        if (!isSupported() || !bitmap.isMutable() || size > mMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+
+        while (mSize + size > mMaxSize) {
+            evictLargest();
+        }
+
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (null == bucket) {
+            bucket = new LinkedList<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mSize += size;
+    }
+
+    /**
+     * Removes and returns a pooled Bitmap suitable for decoding an image of
+     * the given dimensions and config, or null if none is available.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (!isSupported() || width <= 0 || height <= 0) {
+            return null;
+        }
+
+        final Bitmap bitmap;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bitmap = getAtLeast(width * height * getBytesPerPixel(config));
+        } else {
+            bitmap = getExact(width, height, config);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Sets a suitable pooled Bitmap as
+     * {@link android.graphics.BitmapFactory.Options#inBitmap}, given the
+     * bounds already decoded into the options and the sample size to be used.
+     *
+     * @return true if a Bitmap was found, false otherwise.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public boolean prepare(BitmapFactory.Options options) {
+        if (!isSupported()) {
+            return false;
+        }
+
+        /*
+         * Decoders may round the sample size down to a power of two, so
+         * assume the larger of the two possible outputs.
+         */
+        final int sample = Integer.highestOneBit(
+                Math.max(1, options.inSampleSize));
+        final boolean exact =
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT;
+        options.inMutable = true;
+        options.inBitmap = null;
+
+        /*
+         * Before KitKat, only Bitmaps decoded without subsampling can be
+         * reused.
+         */
+        if (exact && sample > 1) {
+            return false;
+        }
+
+        int w = FancySizes.getSampledSize(options.outWidth, sample);
+        int h = FancySizes.getSampledSize(options.outHeight, sample);
+
+        /*
+         * Account for density scaling after subsampling. Before KitKat, a
+         * scaled decode can't reuse a Bitmap.
+         */
+        final int density = options.inDensity;
+        final int target = options.inTargetDensity;
+        if (options.inScaled && density > 0 && target > 0 && density != target) {
+            if (exact) {
+                return false;
+            }
+            final float scale = (float) target / density;
+            w = (int) Math.ceil(w * scale);
+            h = (int) Math.ceil(h * scale);
+        }
+
+        final Bitmap.Config config = null == options.inPreferredConfig ?
+                Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+
+        final Bitmap bitmap = get(w, h, config);
+        options.inBitmap = bitmap;
+
+        return null != bitmap;
+    }
+
+    /**
+     * Marks the Bitmap as displayed, so it won't be reused while visible.
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        if (null == bitmap) {
+            return;
+        }
+        final Integer count = mInUse.get(bitmap);
+        mInUse.put(bitmap, null == count ? 1 : count + 1);
+    }
+
+    /**
+     * Marks the Bitmap as no longer displayed. If it was put in the pool
+     * while displayed, it becomes available for reuse.
+     */
+    public void release(Bitmap bitmap) {
+        if (null == bitmap) {
+            return;
+        }
+        final boolean pending;
+        synchronized (this) {
+            final Integer count = mInUse.get(bitmap);
+            if (null == count) {
+                return;
+            }
+            if (count > 1) {
+                mInUse.put(bitmap, count - 1);
+                return;
+            }
+            mInUse.remove(bitmap);
+            pending = null != mPending.remove(bitmap);
+        }
+        if (pending) {
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Returns this pool max size in bytes.
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns this pool current size in bytes.
+     */
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Recycles all pooled Bitmaps.
+     */
+    public synchronized void clear() {
+        while (!mBuckets.isEmpty()) {
+            evictLargest();
+        }
+    }
+
+    private Bitmap getAtLeast(int bytes) {
+        final SortedMap<Integer, LinkedList<Bitmap>> larger =
+                mBuckets.tailMap(bytes);
+        if (larger.isEmpty()) {
+            return null;
+        }
+        /*
+         * Don't hand out a Bitmap way larger than needed, it would pin the
+         * extra memory for as long as the decoded Bitmap lives.
+         */
+        final int key = larger.firstKey();
+        if (key > bytes * 2) {
+            return null;
+        }
+        return removeFrom(key, larger.get(key).iterator());
+    }
+
+    private Bitmap getExact(int width, int height, Bitmap.Config config) {
+        final int bytes = width * height * getBytesPerPixel(config);
+        final LinkedList<Bitmap> bucket = mBuckets.get(bytes);
+        if (null == bucket) {
+            return null;
+        }
+
+        final Iterator<Bitmap> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            final Bitmap candidate = iterator.next();
+            if (candidate.getWidth() == width
+                    && candidate.getHeight() == height
+                    && candidate.getConfig() == config) {
+                iterator.remove();
+                onRemoved(bytes, bucket);
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    private Bitmap removeFrom(int bytes, Iterator<Bitmap> iterator) {
+        final Bitmap bitmap = iterator.next();
+        iterator.remove();
+        onRemoved(bytes, mBuckets.get(bytes));
+        return bitmap;
+    }
+
+    private void onRemoved(int bytes, LinkedList<Bitmap> bucket) {
+        mSize -= bytes;
+        if (bucket.isEmpty()) {
+            mBuckets.remove(bytes);
+        }
+    }
+
+    private void evictLargest() {
+        final int key = mBuckets.lastKey();
+        removeFrom(key, mBuckets.get(key).iterator()).recycle();
+    }
+
+    /**
+     * Returns a Bitmap of the exact dimensions and config, from the pool if
+     * possible. The pooled Bitmaps still hold their old pixels.
+     *
+     * @param pool the pool, or null to always allocate a new Bitmap.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static Bitmap obtain(FancyBitmapPool pool, int width, int height,
+                         Bitmap.Config config) {
+        Bitmap bitmap = null;
+        if (null != pool) {
+            bitmap = pool.get(width, height, config);
+        }
+
+        if (null != bitmap && (bitmap.getWidth() != width
+                || bitmap.getHeight() != height
+                || bitmap.getConfig() != config)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                bitmap.reconfigure(width, height, config);
+            } else {
+                pool.put(bitmap);
+                bitmap = null;
+            }
+        }
+
+        if (null == bitmap) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+
+        return bitmap;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int getAllocationSize(Bitmap bitmap) {
+        final int bytes;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bytes = bitmap.getAllocationByteCount();
+        } else if (Build.VERSION.SDK_INT > Build.VERSION_CODES.HONEYCOMB) {
+            bytes = bitmap.getByteCount();
+        } else {
+            bytes = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+
+        return bytes;
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        final int bytes;
+
+        if (Bitmap.Config.ALPHA_8 == config) {
+            bytes = 1;
+        } else if (Bitmap.Config.RGB_565 == config
+                || Bitmap.Config.ARGB_4444 == config) {
+            bytes = 2;
+        } else {
+            bytes = 4;
+        }
+
+        return bytes;
+    }
+
+}
@@ -10,15 +10,18 @@ public interface FancyCache {
 
     /**
      * Retrieves the cached Bitmap or null if not in the cache.
+     * <p/>
+     * FancyBackground keys combine the Drawable resource id and the size it
+     * was decoded for.
      */
-    Bitmap get(int key);
+    Bitmap get(long key);
 
     /**
      * Puts the Bitmap in cache.
      *
      * @return true if successfully cached, false otherwise.
      */
-    boolean put(int key, Bitmap bitmap);
+    boolean put(long key, Bitmap bitmap);
 
     /**
      * Returns this cache max size in bytes.
@@ -30,6 +33,12 @@ public interface FancyCache {
      */
     int getSize();
 
+    /**
+     * Evicts entries until the cache holds at most the given number of
+     * bytes. Used to give memory back under memory pressure.
+     */
+    void trimToSize(int maxSize);
+
     /**
      * Clears the cache, evicting and recycling the Bitmaps.
      */
@@ -0,0 +1,151 @@
+package tslamic.fancybg;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the process-wide cache and pool shared by all
+ * {@link tslamic.fancybg.FancyBackground} instances using the defaults, so
+ * identical backgrounds on different screens don't decode everything twice
+ * and all of them stay within a single byte budget.
+ * <p/>
+ * The instances using them are tracked. Under memory pressure, the shared
+ * cache is trimmed once, to the sum of what its users are about to show, and
+ * once the last one halts, the shared cache and pool are cleared, so their
+ * memory isn't held for nothing.
+ */
+final class FancyCaches {
+
+    private static FancyLruCache sCache;
+    private static FancyBitmapPool sPool;
+    private static FancyDiskCache sDiskCache;
+    private static final ArrayList<FancyBackground> sUsers =
+            new ArrayList<FancyBackground>();
+    private static FancyMemory sMemory;
+
+    private FancyCaches() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns the shared cache, creating it if necessary. Its evicted Bitmaps
+     * feed the shared pool.
+     */
+    static synchronized FancyLruCache getDefault(Context context) {
+        if (null == sCache) {
+            sCache = new FancyLruCache(context.getApplicationContext(),
+                    FancyLruCache.DEFAULT_CACHE_PERCENTAGE,
+                    getDefaultPool(context));
+        }
+        return sCache;
+    }
+
+    /**
+     * Returns the shared pool, creating it if necessary.
+     */
+    static synchronized FancyBitmapPool getDefaultPool(Context context) {
+        if (null == sPool) {
+            sPool = new FancyBitmapPool(context.getApplicationContext());
+        }
+        return sPool;
+    }
+
+    /**
+     * Returns the shared disk cache, creating it with the given size and
+     * executor if necessary. All disk caches use the same directory, so
+     * there must only be one; a later size or executor is ignored. It reads
+     * into the shared pool.
+     */
+    static synchronized FancyDiskCache getDiskCache(Context context,
+                                                    int maxSize,
+                                                    Executor executor) {
+        if (null == sDiskCache) {
+            sDiskCache = new FancyDiskCache(context.getApplicationContext(),
+                    maxSize, getDefaultPool(context), executor);
+        }
+        return sDiskCache;
+    }
+
+    /**
+     * Registers a FancyBackground using the shared cache or pool.
+     */
+    static synchronized void acquire(FancyBackground bg) {
+        if (sUsers.isEmpty()) {
+            sMemory = FancyMemory.register(new FancyMemory.Trimmable() {
+                @Override
+                public void trimMemory(boolean critical) {
+                    FancyCaches.trimMemory(critical);
+                }
+            }, bg.view.getContext());
+        }
+        sUsers.add(bg);
+    }
+
+    /**
+     * Unregisters a halted FancyBackground. If it was the last one, the
+     * shared cache and pool are cleared. The disk cache is kept, its files
+     * are meant to outlive the process anyway.
+     */
+    static synchronized void release(FancyBackground bg) {
+        if (sUsers.remove(bg) && sUsers.isEmpty()) {
+            if (null != sMemory) {
+                sMemory.unregister();
+                sMemory = null;
+            }
+            if (null != sCache) {
+                sCache.clear();
+            }
+            if (null != sPool) {
+                sPool.clear();
+            }
+        }
+    }
+
+    /**
+     * Trims the shared cache to the Bitmaps its users are about to show, or
+     * if critical, to about their current ones, also dropping the pooled
+     * Bitmaps. The cache is left alone while any user can't tell its size
+     * yet.
+     */
+    static void trimMemory(boolean critical) {
+        final FancyBackground[] users;
+        final FancyLruCache cache;
+        final FancyBitmapPool pool;
+        synchronized (FancyCaches.class) {
+            users = sUsers.toArray(new FancyBackground[sUsers.size()]);
+            cache = sCache;
+            pool = sPool;
+        }
+
+        int bytes = 0;
+        for (FancyBackground user : users) {
+            if (null != cache && user.cache == cache) {
+                final int trimBytes = user.getTrimBytes(critical);
+                if (trimBytes <= 0) {
+                    bytes = 0;
+                    break;
+                }
+                bytes += trimBytes;
+            }
+        }
+        if (bytes > 0) {
+            cache.trimToSize(bytes);
+        }
+        if (critical && null != pool) {
+            pool.clear();
+        }
+    }
+
+    /**
+     * Returns true if the given cache or pool is a shared one, which must
+     * not be cleared when a single FancyBackground halts, only once all of
+     * them did.
+     */
+    static synchronized boolean isShared(Object cacheOrPool) {
+        return null != cacheOrPool && (sCache == cacheOrPool
+                || sPool == cacheOrPool || sDiskCache == cacheOrPool);
+    }
+
+}
@@ -0,0 +1,371 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * In-memory cache of compressed Bitmaps. Stores the already subsampled
+ * Bitmaps recompressed, opaque ones as JPEG and the rest as PNG, so it holds
+ * several times as many images as the same budget of decoded pixels.
+ * Decoding them back is a single small decode of an image at its final size,
+ * far cheaper than decoding the original resource again.
+ * <p/>
+ * Meant as a second tier behind a {@link tslamic.fancybg.FancyLruCache}, so
+ * a slideshow of many images keeps all of them in memory and only decodes the
+ * upcoming ones. Entries are evicted in LRU order once over the byte budget.
+ * <p/>
+ * Compressing is slow, so with a pool it's done in the background, one
+ * Bitmap at a time, keeping the Bitmap retained in the pool until it's
+ * compressed. Without a pool, Bitmaps are compressed as they are put.
+ */
+public class FancyCompressedCache implements FancyCache {
+
+    static final int DEFAULT_QUALITY = 90;
+
+    private final LinkedHashMap<Long, Entry> mEntries;
+    private final HashSet<Long> mCompressing;
+    private final FancyQueue mQueue;
+    private final FancyBitmapPool mPool;
+    private final FancyCache mNext;
+    private final int mMaxSize;
+    private final int mQuality;
+    private int mRejectedPuts;
+    private int mEvictions;
+    private int mMisses;
+    private int mHits;
+    private int mSize;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize the maximum number of compressed bytes held.
+     */
+    public FancyCompressedCache(int maxSize) {
+        this(maxSize, DEFAULT_QUALITY, null, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize the maximum number of compressed bytes held.
+     * @param quality integer value between 1 and 100 (inclusive), the JPEG
+     *                quality opaque Bitmaps are compressed with.
+     * @param pool    a {@link tslamic.fancybg.FancyBitmapPool} providing the
+     *                Bitmaps the images are decoded into. Use null to always
+     *                allocate new ones.
+     * @param next    a third tier cache, e.g. a
+     *                {@link tslamic.fancybg.FancyDiskCache}, or null. Misses
+     *                fall through to it and Bitmaps put in this cache are
+     *                written through to it.
+     */
+    public FancyCompressedCache(int maxSize, int quality, FancyBitmapPool pool,
+                                FancyCache next) {
+        this(maxSize, quality, pool, next, FancyExecutors.getDefault());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize  the maximum number of compressed bytes held.
+     * @param quality  integer value between 1 and 100 (inclusive), the JPEG
+     *                 quality opaque Bitmaps are compressed with.
+     * @param pool     a {@link tslamic.fancybg.FancyBitmapPool} providing the
+     *                 Bitmaps the images are decoded into. Use null to always
+     *                 allocate new ones.
+     * @param next     a third tier cache, e.g. a
+     *                 {@link tslamic.fancybg.FancyDiskCache}, or null. Misses
+     *                 fall through to it and Bitmaps put in this cache are
+     *                 written through to it.
+     * @param executor the executor compressing the Bitmaps in the background
+     *                 when there's a pool.
+     */
+    public FancyCompressedCache(int maxSize, int quality, FancyBitmapPool pool,
+                                FancyCache next, Executor executor) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("max size must be positive");
+        }
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("quality must be between 1 " +
+                    "and 100");
+        }
+        mEntries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+        mCompressing = new HashSet<Long>();
+        mQueue = new FancyQueue(executor, 1);
+        mMaxSize = maxSize;
+        mQuality = quality;
+        mPool = pool;
+        mNext = next;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Decodes the compressed image, don't call on the main thread. Misses
+     * fall through to the next tier, if any.
+     */
+    @Override
+    public Bitmap get(long key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+            if (null == entry) {
+                mMisses++;
+            } else {
+                mHits++;
+            }
+        }
+
+        Bitmap bitmap = null;
+        if (null != entry) {
+            bitmap = decode(entry);
+            if (null == bitmap) {
+                remove(key, entry);
+            }
+        }
+        if (null == bitmap && null != mNext) {
+            bitmap = mNext.get(key);
+            if (null != bitmap) {
+                putCompressed(key, bitmap);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * With a pool, the Bitmap is compressed in the background, so it can't
+     * be retrieved right away. Without one, it's compressed right here,
+     * don't call on the main thread. If there is a next tier, the Bitmap is
+     * written through to it as well.
+     */
+    @Override
+    public boolean put(long key, Bitmap bitmap) {
+        if (null == bitmap) {
+            throw new IllegalArgumentException("caching null bitmap");
+        }
+
+        final boolean cached = putCompressed(key, bitmap);
+        if (null != mNext) {
+            return mNext.put(key, bitmap) || cached;
+        }
+
+        return cached;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only the compressed images are trimmed, the next tier is kept.
+     */
+    @Override
+    public synchronized void trimToSize(int maxSize) {
+        trim(maxSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only the compressed images are cleared, the next tier is kept.
+     */
+    @Override
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of hits.
+     */
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of misses, including those served by the next tier.
+     */
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the number of images evicted to stay within the byte budget.
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Returns the number of Bitmaps that couldn't be compressed, or were too
+     * large once compressed.
+     */
+    public synchronized int getPutRejectedCount() {
+        return mRejectedPuts;
+    }
+
+    /*
+     * Compresses the Bitmap in the background if there's a pool to keep it
+     * from being reused meanwhile, otherwise right away. Returns false if
+     * it's known not to fit.
+     */
+    private boolean putCompressed(final long key, final Bitmap bitmap) {
+        if (null == mPool) {
+            return store(key, bitmap);
+        }
+
+        synchronized (this) {
+            if (!mCompressing.add(key)) {
+                return true;
+            }
+        }
+        mPool.retain(bitmap);
+        mQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store(key, bitmap);
+                } finally {
+                    synchronized (FancyCompressedCache.this) {
+                        mCompressing.remove(key);
+                    }
+                    mPool.release(bitmap);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    private boolean store(long key, Bitmap bitmap) {
+        final Entry entry = bitmap.isRecycled() ? null : compress(bitmap);
+        if (null == entry || entry.data.length > mMaxSize) {
+            synchronized (this) {
+                mRejectedPuts++;
+            }
+            return false;
+        }
+
+        synchronized (this) {
+            final Entry previous = mEntries.put(key, entry);
+            if (null != previous) {
+                mSize -= previous.data.length;
+            }
+            mSize += entry.data.length;
+            trim(mMaxSize);
+        }
+
+        return true;
+    }
+
+    private synchronized void remove(long key, Entry entry) {
+        if (mEntries.get(key) == entry) {
+            mEntries.remove(key);
+            mSize -= entry.data.length;
+        }
+    }
+
+    /*
+     * Evicts the least recently used entries until at most the given size.
+     * Must hold the lock.
+     */
+    private void trim(int maxSize) {
+        final Iterator<Map.Entry<Long, Entry>> iterator =
+                mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            iterator.remove();
+            mSize -= entry.data.length;
+            mEvictions++;
+        }
+    }
+
+    /*
+     * Opaque Bitmaps compress far better as JPEG, the rest has to keep its
+     * transparency.
+     */
+    private Entry compress(Bitmap bitmap) {
+        final boolean opaque = !bitmap.hasAlpha();
+        final Bitmap.CompressFormat format = opaque ?
+                Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                bitmap.getRowBytes() * bitmap.getHeight() / 8);
+        if (!bitmap.compress(format, mQuality, out)) {
+            return null;
+        }
+
+        return new Entry(out.toByteArray(), bitmap.getWidth(),
+                bitmap.getHeight(), bitmap.getConfig());
+    }
+
+    /*
+     * Decodes the image at its stored size, into a pooled Bitmap if
+     * possible. Returns null if it can't be decoded.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bitmap decode(Entry entry) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = entry.config;
+        options.outWidth = entry.width;
+        options.outHeight = entry.height;
+        if (null == mPool || !mPool.prepare(options)) {
+            return decode(entry.data, options);
+        }
+
+        final Bitmap reusable = options.inBitmap;
+        try {
+            return decode(entry.data, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            mPool.put(reusable);
+            return decode(entry.data, options);
+        }
+    }
+
+    private static Bitmap decode(byte[] data, BitmapFactory.Options options) {
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    private static class Entry {
+
+        final byte[] data;
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Entry(byte[] data, int width, int height, Bitmap.Config config) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.config = null == config ? Bitmap.Config.ARGB_8888 : config;
+        }
+
+    }
+
+}
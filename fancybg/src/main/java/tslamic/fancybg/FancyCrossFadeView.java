@@ -0,0 +1,265 @@
+package tslamic.fancybg;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.animation.Animation;
+import android.widget.ImageView;
+
+/**
+ * Draws the Drawables from {@link tslamic.fancybg.FancyBackground} on a
+ * single View, cross-fading from the outgoing to the incoming one.
+ * <p/>
+ * Unlike {@link tslamic.fancybg.FancyImageSwitcher}, swapping Drawables
+ * never triggers a layout, there are no stacked child views to overdraw, and
+ * the view only invalidates while fading.
+ */
+@SuppressLint("ViewConstructor")
+class FancyCrossFadeView extends View implements FancyRenderer {
+
+    private static final int MSG_SHOW = 0;
+    private static final int MSG_REFINE = 1;
+
+    private final FancyBackground mFancyBg;
+    private final FancyVisibility mVisibility;
+    private final Handler mHandler;
+    private final Matrix mCurrentMatrix;
+    private final Matrix mPreviousMatrix;
+    private final long mDuration;
+
+    private Drawable mCurrent;
+    private Drawable mPrevious;
+    private long mFadeStart;
+
+    FancyCrossFadeView(final FancyBackground fancyBg) {
+        super(fancyBg.view.getContext());
+
+        mFancyBg = fancyBg;
+        mHandler = getFancyHandler();
+        mVisibility = new FancyVisibility(fancyBg, this);
+        mCurrentMatrix = new Matrix();
+        mPreviousMatrix = new Matrix();
+        mDuration = Math.max(getDuration(fancyBg.inAnimation),
+                getDuration(fancyBg.outAnimation));
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int w = mFancyBg.view.getMeasuredWidth();
+        final int h = mFancyBg.view.getMeasuredHeight();
+        setMeasuredDimension(w, h);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        configure(mCurrent, mCurrentMatrix);
+        configure(mPrevious, mPreviousMatrix);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mVisibility.attach();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mVisibility.detach();
+        super.onDetachedFromWindow();
+        mFancyBg.halt();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        mVisibility.update();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        /*
+         * Visibility callbacks may come in before construction is done.
+         */
+        if (null != mVisibility) {
+            mVisibility.update();
+        }
+    }
+
+    @Override
+    public void show(Drawable drawable, boolean refine, long uptimeMillis) {
+        final Message msg = mHandler.obtainMessage();
+        msg.what = refine ? MSG_REFINE : MSG_SHOW;
+        msg.obj = drawable;
+        mHandler.sendMessageAtTime(msg, uptimeMillis);
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who == mCurrent || who == mPrevious || super.verifyDrawable(who);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final float progress = getProgress();
+        if (progress < 1f && null != mPrevious) {
+            draw(canvas, mPrevious, mPreviousMatrix, 255);
+        }
+        if (null != mCurrent) {
+            draw(canvas, mCurrent, mCurrentMatrix, (int) (255 * progress));
+        }
+
+        if (progress < 1f) {
+            invalidateOnAnimation();
+        } else if (null != mPrevious) {
+            /*
+             * Done fading, the outgoing Drawable can go.
+             */
+            setPrevious(null);
+        }
+    }
+
+    /*
+     * Sets the next Drawable and starts fading to it.
+     */
+    private void setDrawable(Drawable drawable) {
+        setPrevious(mCurrent);
+        mPreviousMatrix.set(mCurrentMatrix);
+
+        /*
+         * Fading sets the alpha, which mustn't leak into other Drawables
+         * sharing the same constant state.
+         */
+        mCurrent = drawable.mutate();
+        mCurrent.setCallback(this);
+        configure(mCurrent, mCurrentMatrix);
+        mFadeStart = SystemClock.uptimeMillis();
+        invalidate();
+
+        mFancyBg.onDisplayed();
+        final FancyBackground.FancyListener listener = mFancyBg.listener;
+        if (null != listener) {
+            listener.onNew(mFancyBg);
+        }
+    }
+
+    /*
+     * Replaces the current preview with its full quality Drawable, in place,
+     * so there's no fading and no listener event.
+     */
+    private void refine(Drawable drawable) {
+        final Drawable preview = mCurrent;
+        mCurrent = drawable.mutate();
+        mCurrent.setCallback(this);
+        configure(mCurrent, mCurrentMatrix);
+        release(preview);
+        invalidate();
+    }
+
+    private void setPrevious(Drawable drawable) {
+        if (mPrevious != drawable) {
+            release(mPrevious);
+        }
+        mPrevious = drawable;
+    }
+
+    private float getProgress() {
+        if (mDuration <= 0) {
+            return 1f;
+        }
+        final long elapsed = SystemClock.uptimeMillis() - mFadeStart;
+        return Math.min(1f, (float) elapsed / mDuration);
+    }
+
+    private static void draw(Canvas canvas, Drawable drawable, Matrix matrix,
+                             int alpha) {
+        drawable.setAlpha(alpha);
+        final int count = canvas.save();
+        canvas.concat(matrix);
+        drawable.draw(canvas);
+        canvas.restoreToCount(count);
+    }
+
+    /*
+     * Sets the Drawable bounds and the matrix drawing it as an ImageView of
+     * the same scale type would.
+     */
+    private void configure(Drawable drawable, Matrix matrix) {
+        matrix.reset();
+        if (null == drawable) {
+            return;
+        }
+
+        final int vw = getWidth();
+        final int vh = getHeight();
+        final int dw = drawable.getIntrinsicWidth();
+        final int dh = drawable.getIntrinsicHeight();
+        final ImageView.ScaleType scale = mFancyBg.getDisplayScale();
+        if (dw <= 0 || dh <= 0 || ImageView.ScaleType.FIT_XY == scale) {
+            drawable.setBounds(0, 0, vw, vh);
+            return;
+        }
+        drawable.setBounds(0, 0, dw, dh);
+
+        FancyPrerender.setMatrix(scale, mFancyBg.getDisplayMatrix(), dw, dh,
+                vw, vh, matrix);
+    }
+
+    /*
+     * The Drawable is no longer drawn, so its Bitmap may be reused.
+     */
+    private void release(Drawable drawable) {
+        if (null == drawable) {
+            return;
+        }
+        drawable.setCallback(null);
+        final FancyBitmapPool pool = mFancyBg.pool;
+        if (null != pool && drawable instanceof BitmapDrawable) {
+            pool.release(((BitmapDrawable) drawable).getBitmap());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void invalidateOnAnimation() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postInvalidateOnAnimation();
+        } else {
+            invalidate();
+        }
+    }
+
+    private Handler getFancyHandler() {
+        return new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(final Message msg) {
+                final Drawable drawable = (Drawable) msg.obj;
+                final boolean refine = MSG_REFINE == msg.what;
+                FancyFrames.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (refine) {
+                            refine(drawable);
+                        } else {
+                            setDrawable(drawable);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    private static long getDuration(Animation animation) {
+        return null == animation ? 0 : animation.getDuration();
+    }
+
+}
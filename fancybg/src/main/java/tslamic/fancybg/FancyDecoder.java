@@ -0,0 +1,616 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.widget.ImageView;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decodes the Drawable resources of a {@link tslamic.fancybg.FancyBackground}.
+ * <p/>
+ * Holds no mutable state, every decode uses its own
+ * {@link android.graphics.BitmapFactory.Options}, so any number of resources
+ * can be decoded at the same time.
+ */
+class FancyDecoder {
+
+    private static final int PNG_IHDR = 0x49484452;
+    private static final int PNG_TRNS = 0x74524E53;
+    private static final int PNG_IDAT = 0x49444154;
+    private static final int PNG_IEND = 0x49454E44;
+    private static final int PNG_GRAY_ALPHA = 4;
+    private static final int PNG_RGBA = 6;
+
+    /*
+     * Only decode a region if the crop discards at least a quarter of the
+     * pixels, otherwise the extra stream setup isn't worth it.
+     */
+    private static final float MAX_REGION_RATIO = 0.75f;
+
+    /*
+     * Previews are subsampled this much more than the full quality Bitmaps.
+     */
+    private static final int PREVIEW_SAMPLE_FACTOR = 8;
+
+    /*
+     * Draws a scaled down region over whatever a pooled Bitmap held. Only
+     * read while drawing, so it's safe to share between decodes.
+     */
+    private static final Paint SCALE_PAINT = new Paint(
+            Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    static {
+        SCALE_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    private final ImageView.ScaleType mScale;
+    private final Bitmap.Config mConfig;
+    private final Resources mResources;
+    private final FancyBitmapPool mPool;
+    private final boolean mDither;
+    private final boolean mExact;
+    private final int mVariant;
+
+    /**
+     * @param exact  true to decode Bitmaps at exactly the size the view draws
+     *               them at for the given scale type, false to only
+     *               subsample.
+     * @param config the config to decode to, or null to pick RGB_565 for
+     *               opaque sources and ARGB_8888 for the rest.
+     * @param dither true to dither when decoding to a lower precision config.
+     */
+    FancyDecoder(Resources resources, FancyBitmapPool pool,
+                 ImageView.ScaleType scale, boolean exact,
+                 Bitmap.Config config, boolean dither) {
+        mResources = resources;
+        mConfig = config;
+        mDither = dither;
+        mExact = exact;
+        mScale = scale;
+        mPool = pool;
+        mVariant = getTransform(scale, exact) << 3 | getConfigIndex(config);
+    }
+
+    /**
+     * Returns a value between 0 and 63 identifying the config and transform
+     * of the decoded Bitmaps, so decoders producing different Bitmaps from
+     * the same resource and size don't share cache entries.
+     */
+    int getVariant() {
+        return mVariant;
+    }
+
+    /**
+     * Reads the metadata of the resource: its type and, for Bitmaps, the
+     * bounds and the config to decode to. Does resource I/O.
+     */
+    FancyIndex.Entry inspect(final int resource) {
+        if (!isBitmap(resource)) {
+            return new FancyIndex.Entry(resource, false, 0, 0, null, null, 0, 0);
+        }
+
+        /*
+         * The bounds of the raw image, decodeResource still resolves the
+         * densities it would scale by.
+         */
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(mResources, resource, options);
+
+        final String mimeType = options.outMimeType;
+        return new FancyIndex.Entry(resource, true, options.outWidth,
+                options.outHeight, mimeType, getConfig(resource, mimeType),
+                options.inDensity, options.inTargetDensity);
+    }
+
+    /**
+     * Decodes the indexed resource, subsampled to roughly match the required
+     * width and height, or scaled to match the drawn size exactly if in exact
+     * mode. With CENTER_CROP, only the visible part of large enough images is
+     * decoded.
+     */
+    Bitmap decode(final FancyIndex.Entry entry, final int width,
+                  final int height) {
+        return decode(entry, width, height, null);
+    }
+
+    /**
+     * Decodes the indexed resource like
+     * {@link #decode(FancyIndex.Entry, int, int)}, stopping early and
+     * returning null if the request is cancelled.
+     *
+     * @param request the request to attach the decoding options to, or null.
+     */
+    Bitmap decode(final FancyIndex.Entry entry, final int width,
+                  final int height, final FancyRequest request) {
+        final Bitmap bitmap = decodeScaled(entry, width, height, request);
+
+        /*
+         * Exact decodes scale through made-up densities, and region decodes
+         * get none. Either way, the Bitmap must report the display density,
+         * or Drawables get a wrong intrinsic size and are scaled again.
+         */
+        if (null != bitmap) {
+            bitmap.setDensity(getDensity(entry));
+        }
+
+        return bitmap;
+    }
+
+    private Bitmap decodeScaled(final FancyIndex.Entry entry, final int width,
+                                final int height, final FancyRequest request) {
+        final int resource = entry.resource;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+
+        /*
+         * No bounds pass, the index has the raw bounds along with the
+         * densities decodeResource resolved for them, so it scales the same
+         * way.
+         */
+        options.outWidth = entry.width;
+        options.outHeight = entry.height;
+        options.outMimeType = entry.mimeType;
+        options.inDensity = entry.density;
+        options.inTargetDensity = entry.targetDensity;
+        options.inPreferredConfig = entry.config;
+        options.inDither = mDither;
+        if (ImageView.ScaleType.CENTER_CROP == mScale
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+            final Bitmap region = decodeRegion(resource, options, width,
+                    height, request);
+            if (null != region) {
+                return region;
+            }
+        }
+        if (null != request && !request.attach(options)) {
+            return null;
+        }
+        if (!mExact || !prepareExact(options, entry, width, height)) {
+            options.inSampleSize = entry.getSampleSize(width, height);
+        }
+        if (null != mPool) {
+            mPool.prepare(options);
+        }
+
+        /*
+         * Unless in exact mode, decoding, but not scaling - it's on scale
+         * variable to do that.
+         */
+        return decode(resource, options);
+    }
+
+    /**
+     * Decodes a coarse preview of the indexed resource, quick to decode and
+     * meant to be shown only until the full quality Bitmap is ready. Returns
+     * null if it can't be decoded.
+     */
+    Bitmap decodePreview(final FancyIndex.Entry entry, final int width,
+                         final int height) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inDensity = entry.density;
+        options.inTargetDensity = entry.targetDensity;
+        options.inPreferredConfig = entry.config;
+        options.inDither = mDither;
+        options.inSampleSize = PREVIEW_SAMPLE_FACTOR
+                * entry.getSampleSize(width, height);
+
+        try {
+            return BitmapFactory.decodeResource(mResources, entry.resource,
+                    options);
+        } catch (OutOfMemoryError oom) {
+            return null;
+        }
+    }
+
+    /*
+     * Returns true if the resource is a Bitmap, false if it's an XML
+     * Drawable.
+     */
+    private boolean isBitmap(final int resource) {
+        boolean isBitmap = false;
+
+        final TypedValue value = new TypedValue();
+        mResources.getValue(resource, value, true);
+        if (TypedValue.TYPE_STRING == value.type) {
+            final String file = value.string.toString();
+            if (TextUtils.isEmpty(file)) {
+                throw new IllegalArgumentException("not a Drawable id: " +
+                        value.resourceId);
+            }
+            isBitmap = !file.endsWith(".xml");
+        }
+
+        return isBitmap;
+    }
+
+    /*
+     * The density the resource would be decoded at without any tweaks.
+     */
+    private int getDensity(final FancyIndex.Entry entry) {
+        if (entry.targetDensity > 0) {
+            return entry.targetDensity;
+        }
+        return mResources.getDisplayMetrics().densityDpi;
+    }
+
+    /*
+     * Distinguishes the different ways a resource may be decoded for a given
+     * size: subsampled, cropped, or at the exact covering, fitting or
+     * original scale.
+     */
+    private static int getTransform(ImageView.ScaleType scale, boolean exact) {
+        final boolean crop = ImageView.ScaleType.CENTER_CROP == scale;
+        if (!exact) {
+            return crop ? 1 : 0;
+        }
+        switch (scale) {
+            case FIT_XY:
+                return 2;
+            case CENTER_CROP:
+                return 3;
+            case FIT_CENTER:
+            case FIT_START:
+            case FIT_END:
+            case CENTER_INSIDE:
+                return 4;
+            case CENTER:
+                return 5;
+            default:
+                return 0;
+        }
+    }
+
+    /*
+     * 0 stands for automatic config selection.
+     */
+    private static int getConfigIndex(Bitmap.Config config) {
+        if (null == config) {
+            return 0;
+        }
+        return 1 + config.ordinal();
+    }
+
+    private Bitmap.Config getConfig(int resource, String mimeType) {
+        if (null != mConfig) {
+            return mConfig;
+        }
+        return isOpaque(resource, mimeType) ?
+                Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /*
+     * JPEGs are always opaque. PNGs are opaque if their color type has no
+     * alpha channel and there's no transparency chunk. Anything else is
+     * assumed to be translucent.
+     */
+    private boolean isOpaque(int resource, String mimeType) {
+        if ("image/jpeg".equals(mimeType)) {
+            return true;
+        }
+        if (!"image/png".equals(mimeType)) {
+            return false;
+        }
+
+        InputStream stream = null;
+        try {
+            stream = mResources.openRawResource(resource);
+            return isOpaquePng(new DataInputStream(stream));
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /*
+     * Walks the PNG chunks up to the image data, only reading their headers.
+     */
+    private static boolean isOpaquePng(DataInputStream in) throws IOException {
+        final byte[] signature = new byte[PNG_SIGNATURE.length];
+        in.readFully(signature);
+        if (!Arrays.equals(PNG_SIGNATURE, signature)) {
+            return false;
+        }
+
+        boolean opaque = false;
+        while (true) {
+            final int length = in.readInt();
+            final int type = in.readInt();
+            if (PNG_IHDR == type) {
+                skipFully(in, 9);
+                final int colorType = in.readUnsignedByte();
+                opaque = colorType != PNG_GRAY_ALPHA && colorType != PNG_RGBA;
+                skipFully(in, length - 10);
+            } else if (PNG_TRNS == type) {
+                return false;
+            } else if (PNG_IDAT == type || PNG_IEND == type) {
+                return opaque;
+            } else {
+                skipFully(in, length);
+            }
+            skipFully(in, 4);
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int count)
+            throws IOException {
+        int remaining = count;
+        while (remaining > 0) {
+            final int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("truncated png");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /*
+     * Sets the options to decode at the size the view draws the image at:
+     * subsampling by the largest fitting power of two, then letting the
+     * decoder do the remaining downscale through the density ratio.
+     * Returns false if the drawn size isn't known, e.g. for a custom matrix.
+     */
+    private boolean prepareExact(BitmapFactory.Options options,
+                                 FancyIndex.Entry entry,
+                                 int width, int height) {
+        /*
+         * The view draws the image at its density scaled size, but the
+         * decoder samples and scales the raw one.
+         */
+        final int w = entry.getScaledWidth();
+        final int h = entry.getScaledHeight();
+        if (width <= 0 || height <= 0 || w <= 0 || h <= 0
+                || entry.width <= 0) {
+            return false;
+        }
+
+        final float scale;
+        switch (mScale) {
+            case FIT_XY:
+                /*
+                 * Can't scale unevenly while decoding, so cover the view and
+                 * leave the ImageView only a slight squeeze along one axis.
+                 */
+            case CENTER_CROP:
+                scale = FancySizes.getCoverScale(w, h, width, height);
+                break;
+            case FIT_CENTER:
+            case FIT_START:
+            case FIT_END:
+            case CENTER_INSIDE:
+                scale = FancySizes.getFitScale(w, h, width, height);
+                break;
+            case CENTER:
+                scale = 1f;
+                break;
+            default:
+                return false;
+        }
+
+        final int targetWidth = Math.max(1, Math.round(w * scale));
+        final int sampleSize = FancySizes.getPowerOfTwoSampleSize(
+                (float) targetWidth / entry.width);
+        final int sampledWidth = FancySizes.getSampledSize(entry.width,
+                sampleSize);
+
+        /*
+         * Explicit densities also keep decodeResource from applying the
+         * resource density scaling.
+         */
+        options.inSampleSize = sampleSize;
+        options.inScaled = targetWidth != sampledWidth;
+        options.inDensity = sampledWidth;
+        options.inTargetDensity = targetWidth;
+
+        return true;
+    }
+
+    /*
+     * Decodes only the part of the resource left visible by a center crop,
+     * if that's substantially less than the whole image. Returns null if it
+     * isn't, or if the region can't be decoded, so the whole resource is
+     * decoded instead.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Bitmap decodeRegion(int resource, BitmapFactory.Options bounds,
+                                int width, int height, FancyRequest request) {
+        final String mimeType = bounds.outMimeType;
+        if (width <= 0 || height <= 0 || !("image/jpeg".equals(mimeType)
+                || "image/png".equals(mimeType))) {
+            return null;
+        }
+
+        InputStream stream = null;
+        BitmapRegionDecoder decoder = null;
+        try {
+            stream = mResources.openRawResource(resource);
+            decoder = BitmapRegionDecoder.newInstance(stream, false);
+
+            /*
+             * The region decoder works on the raw image, with no resource
+             * density scaling.
+             */
+            final int w = decoder.getWidth();
+            final int h = decoder.getHeight();
+            int cropWidth = FancySizes.getCropWidth(w, h, width, height);
+            int cropHeight = FancySizes.getCropWidth(h, w, height, width);
+            if ((float) cropWidth * cropHeight > MAX_REGION_RATIO * w * h) {
+                return null;
+            }
+
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = bounds.inPreferredConfig;
+            options.inDither = bounds.inDither;
+
+            final int sample;
+            if (mExact) {
+                sample = FancySizes.getPowerOfTwoSampleSize(
+                        FancySizes.getCoverScale(cropWidth, cropHeight,
+                                width, height));
+            } else {
+                sample = FancySizes.getSampleSize(cropWidth, cropHeight,
+                        width, height);
+            }
+            options.inSampleSize = sample;
+
+            /*
+             * The region decoder draws into a reused Bitmap as is, without
+             * resizing it, so it must be of the exact output size. Trimming
+             * the crop to a multiple of a power of two sample size makes that
+             * size unambiguous.
+             */
+            final boolean reuse = null != mPool && Integer.bitCount(sample) == 1
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+            if (reuse) {
+                cropWidth = Math.max(sample, cropWidth - cropWidth % sample);
+                cropHeight = Math.max(sample, cropHeight - cropHeight % sample);
+            }
+
+            final int left = (w - cropWidth) / 2;
+            final int top = (h - cropHeight) / 2;
+            final Rect rect = new Rect(left, top, left + cropWidth,
+                    top + cropHeight);
+            options.outWidth = cropWidth;
+            options.outHeight = cropHeight;
+            if (null != request && !request.attach(options)) {
+                return null;
+            }
+
+            /*
+             * The region decoder reuses Bitmaps since Jelly Bean.
+             */
+            if (reuse) {
+                final Bitmap.Config config = null == options.inPreferredConfig ?
+                        Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+                options.inMutable = true;
+                options.inBitmap = FancyBitmapPool.obtain(mPool,
+                        cropWidth / sample, cropHeight / sample, config);
+            }
+
+            final Bitmap region = decodeRegion(decoder, rect, options);
+            if (null == region || !mExact) {
+                return region;
+            }
+            return scaleExact(region, width, height);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (null != decoder) {
+                decoder.recycle();
+            }
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect rect,
+                                BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                || null == options.inBitmap) {
+            return decoder.decodeRegion(rect, options);
+        }
+
+        final Bitmap reusable = options.inBitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(rect, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            mPool.put(reusable);
+            bitmap = decoder.decodeRegion(rect, options);
+        }
+        if (null == bitmap && null != options.inBitmap) {
+            mPool.put(options.inBitmap);
+        }
+
+        return bitmap;
+    }
+
+    /*
+     * The region decoder only subsamples, it ignores the density ratio a
+     * full decode scales by. Does the remaining downscale to the covering
+     * size into a pooled Bitmap, giving the region back to the pool.
+     */
+    private Bitmap scaleExact(Bitmap region, int width, int height) {
+        final int w = region.getWidth();
+        final int h = region.getHeight();
+        final float scale = FancySizes.getCoverScale(w, h, width, height);
+        final int scaledWidth = Math.max(1, Math.round(w * scale));
+        final int scaledHeight = Math.max(1, Math.round(h * scale));
+        if (scaledWidth == w && scaledHeight == h) {
+            return region;
+        }
+
+        final Bitmap.Config config = null == region.getConfig() ?
+                Bitmap.Config.ARGB_8888 : region.getConfig();
+        final Bitmap scaled = FancyBitmapPool.obtain(mPool, scaledWidth,
+                scaledHeight, config);
+        new Canvas(scaled).drawBitmap(region, null,
+                new Rect(0, 0, scaledWidth, scaledHeight), SCALE_PAINT);
+        if (null != mPool) {
+            mPool.put(region);
+        } else {
+            region.recycle();
+        }
+
+        return scaled;
+    }
+
+    /*
+     * Decodes the resource with the given options, falling back to a fresh
+     * allocation if the pooled Bitmap can't be reused. If the decode is
+     * cancelled, the pooled Bitmap goes back to the pool.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bitmap decode(final int resource, BitmapFactory.Options options) {
+        if (!FancyBitmapPool.isSupported() || null == options.inBitmap) {
+            return BitmapFactory.decodeResource(mResources, resource, options);
+        }
+
+        final Bitmap reusable = options.inBitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeResource(mResources, resource, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            mPool.put(reusable);
+            bitmap = BitmapFactory.decodeResource(mResources, resource, options);
+        }
+        if (null == bitmap && null != options.inBitmap) {
+            mPool.put(options.inBitmap);
+        }
+
+        return bitmap;
+    }
+
+}
@@ -0,0 +1,420 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.MemoryFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bitmap cache storing the pixels outside the Java heap, in ashmem regions
+ * allocated through {@link android.os.MemoryFile}. The cached pixels neither
+ * count against the heap limit nor get scanned by the garbage collector, and
+ * reading them back into a pooled Bitmap is a plain memory copy.
+ * <p/>
+ * Meant as a second tier behind a {@link tslamic.fancybg.FancyLruCache}, with
+ * a byte budget of its own instead of a share of the heap. Entries are
+ * evicted in LRU order once over the budget, and their regions are freed
+ * right away.
+ * <p/>
+ * Pixels are copied in and out in strips of a few rows, through a small
+ * staging Bitmap and buffer on the heap, so no full size copy is ever made
+ * there. The copies are serialized, and the staging memory is dropped
+ * together with the last entry. Only ARGB_8888 and RGB_565 Bitmaps are
+ * cached.
+ */
+public class FancyDirectCache implements FancyCache {
+
+    private static final String NAME = "fancybg";
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final LinkedHashMap<Long, Entry> mEntries;
+    private final FancyBitmapPool mPool;
+    private final FancyCache mNext;
+    private final Paint mPaint;
+    private final Rect mSrc;
+    private final Rect mDst;
+    private final int mMaxSize;
+    private int mRejectedPuts;
+    private int mEvictions;
+    private int mMisses;
+    private int mHits;
+    private int mSize;
+    private Bitmap mStrip;
+    private Canvas mStripCanvas;
+    private byte[] mChunk;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize the maximum number of bytes stored in ashmem.
+     */
+    public FancyDirectCache(int maxSize) {
+        this(maxSize, null, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize the maximum number of bytes stored in ashmem.
+     * @param pool    a {@link tslamic.fancybg.FancyBitmapPool} providing the
+     *                Bitmaps the pixels are copied into. Use null to always
+     *                allocate new ones.
+     * @param next    a third tier cache, e.g. a
+     *                {@link tslamic.fancybg.FancyDiskCache}, or null. Misses
+     *                fall through to it and Bitmaps put in this cache are
+     *                written through to it.
+     */
+    public FancyDirectCache(int maxSize, FancyBitmapPool pool, FancyCache next) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("max size must be positive");
+        }
+        mEntries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+        mPaint = new Paint();
+        mPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        mSrc = new Rect();
+        mDst = new Rect();
+        mMaxSize = maxSize;
+        mPool = pool;
+        mNext = next;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Misses fall through to the next tier, if any.
+     */
+    @Override
+    public Bitmap get(long key) {
+        Bitmap bitmap = read(key);
+        if (null == bitmap && null != mNext) {
+            bitmap = mNext.get(key);
+            if (null != bitmap) {
+                putDirect(key, bitmap);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * If there is a next tier, the Bitmap is written through to it as well.
+     */
+    @Override
+    public boolean put(long key, Bitmap bitmap) {
+        if (null == bitmap) {
+            throw new IllegalArgumentException("caching null bitmap");
+        }
+
+        final boolean cached = putDirect(key, bitmap);
+        if (null != mNext) {
+            return mNext.put(key, bitmap) || cached;
+        }
+
+        return cached;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only the off-heap pixels are trimmed, the next tier is kept.
+     */
+    @Override
+    public synchronized void trimToSize(int maxSize) {
+        trim(maxSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only the off-heap pixels are cleared, the next tier is kept.
+     */
+    @Override
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            entry.memory.close();
+        }
+        mEntries.clear();
+        dropStaging();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of hits.
+     */
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of misses, including those served by the next tier.
+     */
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the number of Bitmaps evicted to stay within the byte budget.
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Returns the number of Bitmaps too large, of a config other than
+     * ARGB_8888 and RGB_565, or that couldn't be copied into ashmem.
+     */
+    public synchronized int getPutRejectedCount() {
+        return mRejectedPuts;
+    }
+
+    /**
+     * Returns true while the staging Bitmap and buffer are allocated.
+     */
+    synchronized boolean isStaging() {
+        return null != mChunk;
+    }
+
+    /**
+     * Creates the ashmem region of a new entry.
+     */
+    MemoryFile newRegion(int size) throws IOException {
+        return new MemoryFile(NAME, size);
+    }
+
+    private boolean putDirect(long key, Bitmap bitmap) {
+        final Bitmap.Config config = bitmap.getConfig();
+        final boolean supported = Bitmap.Config.ARGB_8888 == config
+                || Bitmap.Config.RGB_565 == config;
+        final int requiredSize = bitmap.getRowBytes() * bitmap.getHeight();
+        synchronized (this) {
+            MemoryFile memory = null;
+            if (supported && requiredSize <= mMaxSize) {
+                memory = write(bitmap);
+            }
+            if (null == memory) {
+                mRejectedPuts++;
+                if (mEntries.isEmpty()) {
+                    dropStaging();
+                }
+                return false;
+            }
+
+            final int size = memory.length();
+            final Entry previous = mEntries.put(key, new Entry(memory, size,
+                    bitmap.getWidth(), bitmap.getHeight(), config,
+                    bitmap.hasAlpha()));
+            if (null != previous) {
+                mSize -= previous.size;
+                previous.memory.close();
+            }
+            mSize += size;
+            trim(mMaxSize);
+        }
+
+        return true;
+    }
+
+    /*
+     * Copies the pixels into a new ashmem region, strip by strip. Returns
+     * null if the region couldn't be created. Must hold the lock.
+     */
+    private MemoryFile write(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return null;
+        }
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        MemoryFile memory = null;
+        try {
+            final Bitmap strip = stage(width, bitmap.getConfig());
+            final int rowBytes = strip.getRowBytes();
+            final int rows = strip.getHeight();
+            memory = newRegion(rowBytes * height);
+            for (int y = 0; y < height; y += rows) {
+                final int count = Math.min(rows, height - y);
+                mSrc.set(0, y, width, y + count);
+                mDst.set(0, 0, width, count);
+                mStripCanvas.drawBitmap(bitmap, mSrc, mDst, mPaint);
+                strip.copyPixelsToBuffer(ByteBuffer.wrap(mChunk));
+                memory.writeBytes(mChunk, 0, y * rowBytes, count * rowBytes);
+            }
+            return memory;
+        } catch (IOException e) {
+            if (null != memory) {
+                memory.close();
+            }
+            return null;
+        } catch (OutOfMemoryError oom) {
+            if (null != memory) {
+                memory.close();
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Copies the pixels of the entry into a pooled Bitmap, strip by strip.
+     * Returns null on a miss, dropping entries that can't be read.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private synchronized Bitmap read(long key) {
+        final Entry entry = mEntries.get(key);
+        if (null == entry) {
+            mMisses++;
+            return null;
+        }
+
+        final Bitmap strip;
+        try {
+            strip = stage(entry.width, entry.config);
+        } catch (OutOfMemoryError oom) {
+            mMisses++;
+            return null;
+        }
+        final Bitmap bitmap = FancyBitmapPool.obtain(mPool, entry.width,
+                entry.height, entry.config);
+        final Canvas canvas = new Canvas(bitmap);
+        final int rowBytes = strip.getRowBytes();
+        final int rows = strip.getHeight();
+        try {
+            for (int y = 0; y < entry.height; y += rows) {
+                final int count = Math.min(rows, entry.height - y);
+                entry.memory.readBytes(mChunk, y * rowBytes, 0,
+                        count * rowBytes);
+                strip.copyPixelsFromBuffer(ByteBuffer.wrap(mChunk));
+                mSrc.set(0, 0, entry.width, count);
+                mDst.set(0, y, entry.width, y + count);
+                canvas.drawBitmap(strip, mSrc, mDst, mPaint);
+            }
+        } catch (IOException e) {
+            if (null != mPool) {
+                mPool.put(bitmap);
+            }
+            remove(key);
+            mMisses++;
+            return null;
+        }
+
+        mHits++;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            bitmap.setHasAlpha(entry.alpha);
+        }
+        return bitmap;
+    }
+
+    /*
+     * Returns the staging Bitmap for rows of the given width and config,
+     * as many as fit in the staging buffer. Must hold the lock.
+     */
+    private Bitmap stage(int width, Bitmap.Config config) {
+        final int rowBytes = width * FancyBitmapPool.getBytesPerPixel(config);
+        final int rows = Math.max(1, CHUNK_SIZE / rowBytes);
+        if (null != mStrip && mStrip.getWidth() == width
+                && mStrip.getHeight() == rows && mStrip.getConfig() == config) {
+            return mStrip;
+        }
+
+        dropStaging();
+        mStrip = Bitmap.createBitmap(width, rows, config);
+        mStripCanvas = new Canvas(mStrip);
+        mChunk = new byte[mStrip.getRowBytes() * rows];
+        return mStrip;
+    }
+
+    /*
+     * Must hold the lock.
+     */
+    private void dropStaging() {
+        if (null != mStrip) {
+            mStrip.recycle();
+        }
+        mStrip = null;
+        mStripCanvas = null;
+        mChunk = null;
+    }
+
+    /*
+     * Removes the entry and frees its ashmem region. Must hold the lock.
+     */
+    private void remove(long key) {
+        final Entry entry = mEntries.remove(key);
+        if (null != entry) {
+            mSize -= entry.size;
+            entry.memory.close();
+        }
+        if (mEntries.isEmpty()) {
+            dropStaging();
+        }
+    }
+
+    /*
+     * Evicts the least recently used entries until at most the given size,
+     * freeing their ashmem regions right away. Must hold the lock.
+     */
+    private void trim(int maxSize) {
+        final Iterator<Map.Entry<Long, Entry>> iterator =
+                mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            iterator.remove();
+            mSize -= entry.size;
+            entry.memory.close();
+            mEvictions++;
+        }
+        if (mEntries.isEmpty()) {
+            dropStaging();
+        }
+    }
+
+    private static class Entry {
+
+        final MemoryFile memory;
+        final int size;
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+        final boolean alpha;
+
+        Entry(MemoryFile memory, int size, int width, int height,
+              Bitmap.Config config, boolean alpha) {
+            this.memory = memory;
+            this.size = size;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.alpha = alpha;
+        }
+
+    }
+
+}
@@ -0,0 +1,511 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Disk-backed Bitmap cache, storing the already subsampled pixels in the
+ * app cache directory. Reading them back is a plain memory copy, far cheaper
+ * than decoding the original resource again.
+ * <p/>
+ * Meant as a second tier behind a {@link tslamic.fancybg.FancyLruCache}.
+ * Entries are evicted in LRU order once over the byte budget, and
+ * invalidated whenever the app is updated, since resource ids may change.
+ * <p/>
+ * All instances store their files in the same directory, and each of them
+ * evicts the others' files, so only one should be used per process.
+ * <p/>
+ * With a pool, files are written in the background, one Bitmap at a time,
+ * keeping the Bitmap retained in the pool until it's written. Without one,
+ * Bitmaps are written as they are put.
+ */
+public class FancyDiskCache implements FancyCache {
+
+    private static final String DIRECTORY = "fancybg";
+    private static final String SUFFIX = ".px";
+    private static final String TEMP = ".tmp";
+
+    private static final int MAGIC = 0xFBC0FFEE;
+    private static final int HEADER_SIZE = 16;
+    private static final int CONFIG_MASK = 0xFF;
+    private static final int FLAG_ALPHA = 0x100;
+
+    private static final Bitmap.Config[] CONFIGS = {
+            Bitmap.Config.ALPHA_8,
+            Bitmap.Config.RGB_565,
+            Bitmap.Config.ARGB_4444,
+            Bitmap.Config.ARGB_8888
+    };
+
+    private final LinkedHashMap<Long, Integer> mEntries;
+    private final HashSet<Long> mWriting;
+    private final FancyQueue mQueue;
+    private final FancyBitmapPool mPool;
+    private final File mRoot;
+    private final File mDir;
+    private final int mMaxSize;
+    private boolean mInitialized;
+    private int mRejectedPuts;
+    private int mEvictions;
+    private int mMisses;
+    private int mHits;
+    private int mSize;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize the maximum number of bytes stored on disk.
+     */
+    public FancyDiskCache(Context context, int maxSize) {
+        this(context, maxSize, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize the maximum number of bytes stored on disk.
+     * @param pool    a {@link tslamic.fancybg.FancyBitmapPool} providing the
+     *                Bitmaps the pixels are read into. Use null to always
+     *                allocate new ones.
+     */
+    public FancyDiskCache(Context context, int maxSize, FancyBitmapPool pool) {
+        this(context, maxSize, pool, FancyExecutors.getDefault());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxSize  the maximum number of bytes stored on disk.
+     * @param pool     a {@link tslamic.fancybg.FancyBitmapPool} providing the
+     *                 Bitmaps the pixels are read into. Use null to always
+     *                 allocate new ones.
+     * @param executor the executor writing the files in the background when
+     *                 there's a pool.
+     */
+    public FancyDiskCache(Context context, int maxSize, FancyBitmapPool pool,
+                          Executor executor) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("max size must be positive");
+        }
+        mEntries = new LinkedHashMap<Long, Integer>(16, 0.75f, true);
+        mWriting = new HashSet<Long>();
+        mQueue = new FancyQueue(executor, 1);
+        mRoot = new File(context.getCacheDir(), DIRECTORY);
+        mDir = new File(mRoot, getVersion(context));
+        mMaxSize = maxSize;
+        mPool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Does disk I/O, don't call on the main thread.
+     */
+    @Override
+    public Bitmap get(long key) {
+        synchronized (this) {
+            init();
+            if (null == mEntries.get(key)) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+        }
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = read(getFile(key));
+        } catch (IOException e) {
+            remove(key);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * With a pool, the file is written in the background, so the Bitmap
+     * can't be retrieved right away. Without one, it's written right here,
+     * don't call on the main thread.
+     */
+    @Override
+    public boolean put(long key, Bitmap bitmap) {
+        if (null == bitmap) {
+            throw new IllegalArgumentException("caching null bitmap");
+        }
+
+        final int config = Arrays.asList(CONFIGS).indexOf(bitmap.getConfig());
+        final int requiredSize = HEADER_SIZE +
+                bitmap.getRowBytes() * bitmap.getHeight();
+        if (config < 0 || requiredSize > mMaxSize) {
+            synchronized (this) {
+                mRejectedPuts++;
+            }
+            return false;
+        }
+
+        return putFile(key, bitmap, config, requiredSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getSize() {
+        init();
+        return mSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Deletes the least recently used files. Does disk I/O, don't call on
+     * the main thread.
+     */
+    @Override
+    public synchronized void trimToSize(int maxSize) {
+        init();
+        trim(maxSize, null);
+    }
+
+    /**
+     * Deletes all the cached files.
+     */
+    @Override
+    public synchronized void clear() {
+        init();
+        for (Long key : mEntries.keySet()) {
+            getFile(key).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of hits.
+     */
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of misses.
+     */
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the number of files evicted to stay within the byte budget.
+     */
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Returns the number of Bitmaps too large or of an unsupported config.
+     */
+    public synchronized int getPutRejectedCount() {
+        return mRejectedPuts;
+    }
+
+    /*
+     * Writes the file in the background if there's a pool to keep the Bitmap
+     * from being reused meanwhile, otherwise right away.
+     */
+    private boolean putFile(final long key, final Bitmap bitmap,
+                            final int config, final int size) {
+        if (null == mPool) {
+            return store(key, bitmap, config, size);
+        }
+
+        synchronized (this) {
+            if (!mWriting.add(key)) {
+                return true;
+            }
+        }
+        mPool.retain(bitmap);
+        mQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store(key, bitmap, config, size);
+                } finally {
+                    synchronized (FancyDiskCache.this) {
+                        mWriting.remove(key);
+                    }
+                    mPool.release(bitmap);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    /*
+     * Writes a temporary file and renames it, so a file is either complete
+     * or missing.
+     */
+    private boolean store(long key, Bitmap bitmap, int config, int size) {
+        if (bitmap.isRecycled()) {
+            return false;
+        }
+        synchronized (this) {
+            init();
+        }
+
+        final File file = getFile(key);
+        File temp = null;
+        try {
+            temp = File.createTempFile(file.getName(), TEMP, mDir);
+            write(temp, bitmap, config, size);
+            if (!temp.renameTo(file)) {
+                throw new IOException("can't rename " + temp);
+            }
+        } catch (IOException e) {
+            if (null != temp) {
+                temp.delete();
+            }
+            return false;
+        }
+
+        synchronized (this) {
+            final Integer previous = mEntries.put(key, size);
+            if (null != previous) {
+                mSize -= previous;
+            }
+            mSize += size;
+            trim(mMaxSize, key);
+        }
+
+        return true;
+    }
+
+    /*
+     * Lazily indexes the existing files, so the constructor does no I/O.
+     * Must hold the lock.
+     */
+    private void init() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+
+        deleteStaleVersions();
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            return;
+        }
+
+        final File[] files = mDir.listFiles();
+        if (null == files) {
+            return;
+        }
+
+        /*
+         * The last modified time is the best approximation of the access
+         * order available.
+         */
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long l = lhs.lastModified();
+                final long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            try {
+                final int end = name.length() - SUFFIX.length();
+                final long key = Long.parseLong(name.substring(0, end), 16);
+                final int size = (int) file.length();
+                mEntries.put(key, size);
+                mSize += size;
+            } catch (NumberFormatException e) {
+                file.delete();
+            }
+        }
+
+        trim(mMaxSize, null);
+    }
+
+    private synchronized void remove(long key) {
+        final Integer size = mEntries.remove(key);
+        if (null != size) {
+            mSize -= size;
+        }
+        getFile(key).delete();
+    }
+
+    /*
+     * Evicts the least recently used entries until at most the given size,
+     * sparing the given key. Must hold the lock.
+     */
+    private void trim(int maxSize, Long spare) {
+        final Iterator<Map.Entry<Long, Integer>> iterator =
+                mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            final Map.Entry<Long, Integer> entry = iterator.next();
+            if (entry.getKey().equals(spare)) {
+                continue;
+            }
+            iterator.remove();
+            mSize -= entry.getValue();
+            mEvictions++;
+            getFile(entry.getKey()).delete();
+        }
+    }
+
+    private void deleteStaleVersions() {
+        final File[] versions = mRoot.listFiles();
+        if (null == versions) {
+            return;
+        }
+        for (File version : versions) {
+            if (!version.equals(mDir)) {
+                final File[] files = version.listFiles();
+                if (null != files) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                version.delete();
+            }
+        }
+    }
+
+    private File getFile(long key) {
+        return new File(mDir, Long.toHexString(key) + SUFFIX);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private Bitmap read(File file) throws IOException {
+        final FileInputStream stream = new FileInputStream(file);
+        try {
+            final FileChannel channel = stream.getChannel();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("truncated " + file);
+                }
+            }
+            header.flip();
+
+            final int magic = header.getInt();
+            final int width = header.getInt();
+            final int height = header.getInt();
+            final int flags = header.getInt();
+            final int config = flags & CONFIG_MASK;
+            if (MAGIC != magic || config < 0 || config >= CONFIGS.length) {
+                throw new IOException("corrupted " + file);
+            }
+
+            /*
+             * Validate before obtaining a Bitmap, so a corrupted file doesn't
+             * cost a pooled one.
+             */
+            final long pixels = channel.size() - HEADER_SIZE;
+            final int bytesPerPixel = FancyBitmapPool.getBytesPerPixel(
+                    CONFIGS[config]);
+            if (width <= 0 || height <= 0
+                    || (long) width * height * bytesPerPixel != pixels) {
+                throw new IOException("corrupted " + file);
+            }
+            final MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, HEADER_SIZE, pixels);
+
+            final Bitmap bitmap = FancyBitmapPool.obtain(mPool, width, height,
+                    CONFIGS[config]);
+            if (bitmap.getRowBytes() * bitmap.getHeight() != pixels) {
+                if (null != mPool) {
+                    mPool.put(bitmap);
+                }
+                throw new IOException("corrupted " + file);
+            }
+            bitmap.copyPixelsFromBuffer(buffer);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+                bitmap.setHasAlpha((flags & FLAG_ALPHA) != 0);
+            }
+
+            /*
+             * Touch the file, so the access order survives restarts.
+             */
+            file.setLastModified(System.currentTimeMillis());
+
+            return bitmap;
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void write(File file, Bitmap bitmap, int config, int size)
+            throws IOException {
+        final RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(size);
+            final MappedByteBuffer buffer = out.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(bitmap.hasAlpha() ? config | FLAG_ALPHA : config);
+            bitmap.copyPixelsToBuffer(buffer);
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * Resource ids may change between app versions, so the cached files are
+     * kept per installed version.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private static String getVersion(Context context) {
+        long version = 0;
+        try {
+            final PackageInfo info = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+                version = info.lastUpdateTime;
+            } else {
+                version = info.versionCode;
+            }
+        } catch (PackageManager.NameNotFoundException ignored) {
+        }
+        return Long.toHexString(version);
+    }
+
+}
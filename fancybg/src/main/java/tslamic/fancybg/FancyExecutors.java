@@ -0,0 +1,59 @@
+package tslamic.fancybg;
+
+import android.os.Process;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the process-wide executor shared by all
+ * {@link tslamic.fancybg.FancyBackground} instances, unless one is
+ * explicitly set through the Builder.
+ */
+final class FancyExecutors {
+
+    private static final int MAX_THREADS = 4;
+
+    private static ScheduledExecutorService sDefault;
+
+    private FancyExecutors() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns the shared executor, creating it if necessary. The number of
+     * its threads is bounded by the number of available processors, and
+     * doesn't grow with the number of FancyBackground instances.
+     */
+    static synchronized ScheduledExecutorService getDefault() {
+        if (null == sDefault) {
+            final int cpus = Runtime.getRuntime().availableProcessors();
+            final int threads = Math.max(2, Math.min(MAX_THREADS, cpus));
+            sDefault = new ScheduledThreadPoolExecutor(threads,
+                    new FancyThreadFactory());
+        }
+        return sDefault;
+    }
+
+    private static class FancyThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "FancyBackground #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
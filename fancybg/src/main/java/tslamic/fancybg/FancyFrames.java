@@ -0,0 +1,41 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Aligns Drawable swaps with the display refresh.
+ */
+final class FancyFrames {
+
+    private FancyFrames() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs the given runnable at the start of the next frame on Jelly Bean
+     * and above, so the swap lands on a vsync instead of anywhere within the
+     * frame. Runs it right away on older devices. Must be called from the
+     * main thread.
+     */
+    static void post(Runnable runnable) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void postFrameCallback(final Runnable runnable) {
+        Choreographer.getInstance().postFrameCallback(
+                new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        runnable.run();
+                    }
+                });
+    }
+
+}
@@ -2,6 +2,7 @@ package tslamic.fancybg;
 
 import android.annotation.SuppressLint;
 import android.graphics.Matrix;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Looper;
@@ -15,16 +16,30 @@ import android.widget.ImageView;
  * {@link tslamic.fancybg.FancyBackground}.
  */
 @SuppressLint("ViewConstructor")
-class FancyImageSwitcher extends ImageSwitcher {
+class FancyImageSwitcher extends ImageSwitcher implements FancyRenderer {
+
+    /*
+     * Message replacing the current Drawable without animating.
+     */
+    private static final int MSG_REFINE = 1;
 
     private final FancyBackground mFancyBg;
+    private final FancyVisibility mVisibility;
     private final Handler mHandler;
 
+    /*
+     * Drawables held by the two child views, the current one and the one
+     * being replaced.
+     */
+    private Drawable mCurrent;
+    private Drawable mPrevious;
+
     FancyImageSwitcher(final FancyBackground fancyBg) {
         super(fancyBg.view.getContext());
 
         mFancyBg = fancyBg;
         mHandler = getFancyHandler();
+        mVisibility = new FancyVisibility(fancyBg, this);
 
         setFactory(getFancyFactory());
         setInAnimation(mFancyBg.inAnimation);
@@ -39,15 +54,51 @@ class FancyImageSwitcher extends ImageSwitcher {
         setMeasuredDimension(w, h);
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mVisibility.attach();
+    }
+
     @Override
     protected void onDetachedFromWindow() {
+        mVisibility.detach();
         super.onDetachedFromWindow();
         mFancyBg.halt();
     }
 
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        mVisibility.update();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        /*
+         * Visibility callbacks may come in before construction is done.
+         */
+        if (null != mVisibility) {
+            mVisibility.update();
+        }
+    }
+
+    @Override
+    public void show(Drawable drawable, boolean refine, long uptimeMillis) {
+        final Message msg = mHandler.obtainMessage();
+        msg.what = refine ? MSG_REFINE : 0;
+        msg.obj = drawable;
+        mHandler.sendMessageAtTime(msg, uptimeMillis);
+    }
+
     @Override
     public void setImageDrawable(Drawable drawable) {
         super.setImageDrawable(drawable);
+        release(mPrevious);
+        mPrevious = mCurrent;
+        mCurrent = drawable;
+        mFancyBg.onDisplayed();
         final FancyBackground.FancyListener listener = mFancyBg.listener;
         if (null != listener) {
             listener.onNew(mFancyBg);
@@ -59,12 +110,43 @@ class FancyImageSwitcher extends ImageSwitcher {
         return mHandler;
     }
 
+    /*
+     * Replaces the current preview with its full quality Drawable, in place,
+     * so there's no animation and no listener event.
+     */
+    private void refine(Drawable drawable) {
+        ((ImageView) getCurrentView()).setImageDrawable(drawable);
+        release(mCurrent);
+        mCurrent = drawable;
+    }
+
+    /*
+     * The Drawable is no longer held by any child view, so its Bitmap may
+     * be reused.
+     */
+    private void release(Drawable drawable) {
+        final FancyBitmapPool pool = mFancyBg.pool;
+        if (null != pool && drawable instanceof BitmapDrawable) {
+            pool.release(((BitmapDrawable) drawable).getBitmap());
+        }
+    }
+
     private Handler getFancyHandler() {
         return new Handler(Looper.getMainLooper()) {
             @Override
-            public void handleMessage(Message msg) {
+            public void handleMessage(final Message msg) {
                 final Drawable drawable = (Drawable) msg.obj;
-                setImageDrawable(drawable);
+                final boolean refine = MSG_REFINE == msg.what;
+                FancyFrames.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (refine) {
+                            refine(drawable);
+                        } else {
+                            setImageDrawable(drawable);
+                        }
+                    }
+                });
             }
         };
     }
@@ -76,9 +158,9 @@ class FancyImageSwitcher extends ImageSwitcher {
                 final View source = mFancyBg.view;
                 final ImageView view = new ImageView(source.getContext());
                 view.setLayoutParams(source.getLayoutParams());
-                view.setScaleType(mFancyBg.scale);
+                view.setScaleType(mFancyBg.getDisplayScale());
 
-                final Matrix matrix = mFancyBg.matrix;
+                final Matrix matrix = mFancyBg.getDisplayMatrix();
                 if (null != matrix) {
                     view.setImageMatrix(matrix);
                 }
@@ -0,0 +1,126 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metadata of the Drawable resources of a
+ * {@link tslamic.fancybg.FancyBackground}: their type, bounds and decoding
+ * config. Built once in the background, so neither the ticks nor the
+ * prefetching need to look up resource values or run bounds passes.
+ */
+class FancyIndex {
+
+    /**
+     * Immutable metadata of a single Drawable resource. The bounds are those
+     * of the raw image, the densities those decodeResource scales it by.
+     */
+    static class Entry {
+
+        final int resource;
+        final boolean bitmap;
+        final int width;
+        final int height;
+        final String mimeType;
+        final Bitmap.Config config;
+        final int density;
+        final int targetDensity;
+
+        Entry(int resource, boolean bitmap, int width, int height,
+              String mimeType, Bitmap.Config config, int density,
+              int targetDensity) {
+            this.resource = resource;
+            this.bitmap = bitmap;
+            this.width = width;
+            this.height = height;
+            this.mimeType = mimeType;
+            this.config = config;
+            this.density = density;
+            this.targetDensity = targetDensity;
+        }
+
+        /**
+         * Returns the width once scaled by the resource density, the size
+         * the image has when decoded as is.
+         */
+        int getScaledWidth() {
+            return scale(width);
+        }
+
+        /**
+         * Returns the height once scaled by the resource density.
+         */
+        int getScaledHeight() {
+            return scale(height);
+        }
+
+        /**
+         * Returns the subsampling divisor for decoding at the given size.
+         */
+        int getSampleSize(int reqWidth, int reqHeight) {
+            return FancySizes.getSampleSize(getScaledWidth(),
+                    getScaledHeight(), reqWidth, reqHeight);
+        }
+
+        /**
+         * Returns the estimated number of bytes the resource takes once
+         * subsampled for the given size, 0 if it isn't a Bitmap.
+         */
+        int getByteCount(int reqWidth, int reqHeight) {
+            if (!bitmap) {
+                return 0;
+            }
+            final int sampleSize = getSampleSize(reqWidth, reqHeight);
+            return FancySizes.getSampledSize(getScaledWidth(), sampleSize)
+                    * FancySizes.getSampledSize(getScaledHeight(), sampleSize)
+                    * FancyBitmapPool.getBytesPerPixel(config);
+        }
+
+        /*
+         * Rounds like the decoder does.
+         */
+        private int scale(int size) {
+            if (density <= 0 || targetDensity <= 0 || density == targetDensity) {
+                return size;
+            }
+            return (int) (size * (float) targetDensity / density + 0.5f);
+        }
+
+    }
+
+    private final ConcurrentHashMap<Integer, Entry> mEntries;
+    private final FancyDecoder mDecoder;
+
+    FancyIndex(FancyDecoder decoder) {
+        mEntries = new ConcurrentHashMap<Integer, Entry>();
+        mDecoder = decoder;
+    }
+
+    /**
+     * Indexes all the given resources. Does resource I/O, don't call on the
+     * main thread.
+     */
+    void build(int[] resources) {
+        for (int resource : resources) {
+            get(resource);
+        }
+    }
+
+    /**
+     * Returns the metadata of the resource, reading it first if it isn't
+     * indexed yet.
+     */
+    Entry get(int resource) {
+        Entry entry = mEntries.get(resource);
+        if (null == entry) {
+            entry = mDecoder.inspect(resource);
+            final Entry previous = mEntries.putIfAbsent(resource, entry);
+            if (null != previous) {
+                entry = previous;
+            }
+        }
+        return entry;
+    }
+
+}
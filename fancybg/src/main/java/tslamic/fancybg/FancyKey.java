@@ -0,0 +1,67 @@
+package tslamic.fancybg;
+
+/**
+ * Composes {@link tslamic.fancybg.FancyCache} keys. A key packs the Drawable
+ * resource id in its high 32 bits, and the target width and height it was
+ * decoded for along with the decoding variant, i.e. the config and transform,
+ * in its low 32 bits. So the same resource decoded for different view sizes
+ * or in different ways is cached separately, even in a shared cache.
+ */
+final class FancyKey {
+
+    private static final int SIZE_BITS = 13;
+    private static final int MAX_SIZE = (1 << SIZE_BITS) - 1;
+
+    private static final int WIDTH_SHIFT = 32 - SIZE_BITS;
+    private static final int HEIGHT_SHIFT = WIDTH_SHIFT - SIZE_BITS;
+
+    private static final int VARIANT_BITS = HEIGHT_SHIFT;
+    private static final int MAX_VARIANT = (1 << VARIANT_BITS) - 1;
+
+    private FancyKey() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns the key for the resource decoded for the given target size,
+     * in the default variant. Sizes larger than 8191 pixels are clamped.
+     */
+    static long of(int resource, int width, int height) {
+        return of(resource, width, height, 0);
+    }
+
+    /**
+     * Returns the key for the resource decoded for the given target size and
+     * in the given variant, between 0 and 63. Sizes larger than 8191 pixels
+     * are clamped.
+     */
+    static long of(int resource, int width, int height, int variant) {
+        if (variant < 0 || variant > MAX_VARIANT) {
+            throw new IllegalArgumentException("invalid variant: " + variant);
+        }
+        final long low = ((long) clamp(width) << WIDTH_SHIFT)
+                | ((long) clamp(height) << HEIGHT_SHIFT) | variant;
+        return ((long) resource << 32) | low;
+    }
+
+    static int resource(long key) {
+        return (int) (key >>> 32);
+    }
+
+    static int width(long key) {
+        return (int) (key >>> WIDTH_SHIFT) & MAX_SIZE;
+    }
+
+    static int height(long key) {
+        return (int) (key >>> HEIGHT_SHIFT) & MAX_SIZE;
+    }
+
+    static int variant(long key) {
+        return (int) key & MAX_VARIANT;
+    }
+
+    private static int clamp(int size) {
+        return Math.max(0, Math.min(MAX_SIZE, size));
+    }
+
+}
@@ -0,0 +1,81 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Pauses, resumes and halts a {@link tslamic.fancybg.FancyBackground}
+ * along with the lifecycle of the Activity it's shown in.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+class FancyLifecycle implements Application.ActivityLifecycleCallbacks {
+
+    private final FancyBackground mFancyBg;
+    private final Activity mActivity;
+
+    private FancyLifecycle(FancyBackground bg, Activity activity) {
+        mFancyBg = bg;
+        mActivity = activity;
+    }
+
+    /**
+     * Registers a new instance, returns null if lifecycle callbacks aren't
+     * available on this device.
+     */
+    static FancyLifecycle register(FancyBackground bg, Activity activity) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return null;
+        }
+        final FancyLifecycle lifecycle = new FancyLifecycle(bg, activity);
+        activity.getApplication().registerActivityLifecycleCallbacks(lifecycle);
+        return lifecycle;
+    }
+
+    /**
+     * Stops receiving the lifecycle callbacks.
+     */
+    void unregister() {
+        mActivity.getApplication().unregisterActivityLifecycleCallbacks(this);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        if (mActivity == activity) {
+            mFancyBg.resume();
+        }
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+        if (mActivity == activity) {
+            mFancyBg.pause();
+        }
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        if (mActivity == activity) {
+            mFancyBg.halt();
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+}
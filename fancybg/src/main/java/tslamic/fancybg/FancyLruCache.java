@@ -8,19 +8,36 @@ import android.graphics.Bitmap;
 import android.os.Build;
 
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Simple in-memory LRU Bitmap cache.
+ * Simple in-memory LRU Bitmap cache, safe to use from multiple threads.
+ * <p/>
+ * Reads don't lock, they only stamp the entry with its access time. Writes
+ * and evictions are serialized, which keeps the byte accounting exact.
  */
 public class FancyLruCache implements FancyCache {
 
-    private static final int DEFAULT_CACHE_PERCENTAGE = 25;
+    static final int DEFAULT_CACHE_PERCENTAGE = 25;
 
-    private final LinkedHashMap<Integer, Bitmap> mCache;
+    private final ConcurrentHashMap<Long, Entry> mCache;
+    private final FancyBitmapPool mPool;
+    private final FancyCache mNext;
+    private final AtomicLong mClock;
+    private final AtomicInteger mHits;
+    private final AtomicInteger mMisses;
+    private final AtomicInteger mEvictions;
+    private final AtomicInteger mRejectedPuts;
+    private final Object mLock;
     private final int mMaxSize;
-    private int mSize;
+
+    /*
+     * Only written while holding the lock.
+     */
+    private volatile int mSize;
 
     /**
      * Constructs a new instance targeting ~25% of the available heap.
@@ -29,6 +46,14 @@ public class FancyLruCache implements FancyCache {
         this(context, DEFAULT_CACHE_PERCENTAGE);
     }
 
+    /**
+     * Constructs a new instance targeting ~25% of the available heap, feeding
+     * the evicted Bitmaps to the given pool.
+     */
+    public FancyLruCache(Context context, FancyBitmapPool pool) {
+        this(context, DEFAULT_CACHE_PERCENTAGE, pool);
+    }
+
     /**
      * Constructs a new instance.
      *
@@ -37,49 +62,149 @@ public class FancyLruCache implements FancyCache {
      *                        target as cache.
      */
     public FancyLruCache(Context context, int cachePercentage) {
+        this(context, cachePercentage, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param cachePercentage integer value between 1 and 80 (inclusive),
+     *                        denoting the percentage of available heap to
+     *                        target as cache.
+     * @param pool            a {@link tslamic.fancybg.FancyBitmapPool}
+     *                        receiving the evicted Bitmaps for reuse. Use
+     *                        null to recycle them instead.
+     */
+    public FancyLruCache(Context context, int cachePercentage,
+                         FancyBitmapPool pool) {
+        this(context, cachePercentage, pool, null);
+    }
+
+    /**
+     * Constructs a new instance backed by a second tier cache, e.g. a
+     * {@link tslamic.fancybg.FancyDiskCache}. Misses fall through to the
+     * second tier and Bitmaps put in this cache are written through to it.
+     *
+     * @param cachePercentage integer value between 1 and 80 (inclusive),
+     *                        denoting the percentage of available heap to
+     *                        target as cache.
+     * @param pool            a {@link tslamic.fancybg.FancyBitmapPool}
+     *                        receiving the evicted Bitmaps for reuse. Use
+     *                        null to recycle them instead.
+     * @param next            the second tier cache, or null.
+     */
+    public FancyLruCache(Context context, int cachePercentage,
+                         FancyBitmapPool pool, FancyCache next) {
         if (cachePercentage < 1 || cachePercentage > 80) {
             throw new IllegalArgumentException("cache percentage must be " +
                     "between 1 and 80");
         }
-        mCache = new LinkedHashMap<Integer, Bitmap>();
+        mCache = new ConcurrentHashMap<Long, Entry>();
+        mClock = new AtomicLong();
+        mHits = new AtomicInteger();
+        mMisses = new AtomicInteger();
+        mEvictions = new AtomicInteger();
+        mRejectedPuts = new AtomicInteger();
+        mLock = new Object();
         mMaxSize = getDefaultCacheSize(context, cachePercentage);
+        mPool = pool;
+        mNext = next;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * If there is a second tier, the Bitmap is written through to it as well.
      */
     @Override
-    public boolean put(int key, Bitmap bitmap) {
+    public boolean put(long key, Bitmap bitmap) {
         if (null == bitmap) {
             throw new IllegalArgumentException("caching null bitmap");
         }
 
-        final int requiredSize = getBitmapSize(bitmap);
-        if (requiredSize > mMaxSize) {
-            return false;
+        return putCountingEvictions(key, bitmap) >= 0;
+    }
+
+    /**
+     * Caches the Bitmap like {@link #put(long, Bitmap)}, returning the number
+     * of Bitmaps evicted from memory to make room for it, or -1 if no tier
+     * accepted it.
+     */
+    int putCountingEvictions(long key, Bitmap bitmap) {
+        if (null == bitmap) {
+            throw new IllegalArgumentException("caching null bitmap");
         }
 
-        while (!mCache.isEmpty() && (mSize + requiredSize) > mMaxSize) {
-            evict(false);
+        final int evicted = putInMemory(key, bitmap);
+        if (null != mNext && mNext.put(key, bitmap)) {
+            return Math.max(0, evicted);
         }
-        mCache.put(key, bitmap);
-        mSize += requiredSize;
 
-        return true;
+        return evicted;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Lock-free, but marks the Bitmap as the most recently used one. Misses
+     * fall through to the second tier, if any.
      */
     @Override
-    public Bitmap get(int key) {
-        return mCache.get(key);
+    public Bitmap get(long key) {
+        final Bitmap cached = getInMemory(key);
+        if (null != cached) {
+            return cached;
+        }
+        mMisses.incrementAndGet();
+
+        Bitmap bitmap = null;
+        if (null != mNext) {
+            bitmap = mNext.get(key);
+            if (null != bitmap) {
+                putInMemory(key, bitmap);
+            }
+        }
+
+        return bitmap;
     }
 
     /**
-     * {@inheritDoc}
+     * Retrieves the cached Bitmap like {@link #get(long)}, also marking it as
+     * displayed in the given pool. In-memory hits are retained while holding
+     * the cache lock, and Bitmaps read from the second tier before they are
+     * put in memory, so they can't be evicted and reused in between, as they
+     * could be if retained after the lookup. The second tier is read without
+     * holding the lock. Release the Bitmap through the pool once it's no
+     * longer displayed.
      */
+    public Bitmap getAndRetain(long key, FancyBitmapPool pool) {
+        if (null == pool) {
+            throw new IllegalArgumentException("pool is null");
+        }
+        synchronized (mLock) {
+            final Bitmap cached = getInMemory(key);
+            if (null != cached) {
+                pool.retain(cached);
+                return cached;
+            }
+        }
+        mMisses.incrementAndGet();
+
+        Bitmap bitmap = null;
+        if (null != mNext) {
+            bitmap = mNext.get(key);
+            if (null != bitmap) {
+                pool.retain(bitmap);
+                putInMemory(key, bitmap);
+            }
+        }
+
+        return bitmap;
+    }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
     public int getMaxSize() {
         return mMaxSize;
@@ -95,33 +220,153 @@ public class FancyLruCache implements FancyCache {
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Only the in-memory Bitmaps are cleared, the second tier is kept.
      */
     @Override
     public void clear() {
-        evict(true);
+        synchronized (mLock) {
+            final Iterator<Entry> iterator = mCache.values().iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                iterator.remove();
+                mSize -= entry.size;
+                release(entry.bitmap);
+            }
+        }
     }
 
-    private void evict(final boolean all) {
-        final Iterator<Map.Entry<Integer, Bitmap>> iterator =
-                mCache.entrySet().iterator();
-        if (iterator.hasNext()) {
-            evictBitmap(iterator);
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only the in-memory Bitmaps are trimmed, the second tier is kept.
+     */
+    @Override
+    public void trimToSize(int maxSize) {
+        synchronized (mLock) {
+            while (!mCache.isEmpty() && mSize > maxSize) {
+                evictOne();
+            }
         }
-        if (all) {
-            while (iterator.hasNext()) {
-                evictBitmap(iterator);
+    }
+
+    /**
+     * Returns the number of in-memory hits.
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Returns the number of in-memory misses, including those served by the
+     * second tier.
+     */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Returns the number of Bitmaps evicted to make room for new ones.
+     */
+    public int getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /**
+     * Returns the number of Bitmaps too large to be cached.
+     */
+    public int getPutRejectedCount() {
+        return mRejectedPuts.get();
+    }
+
+    /*
+     * Returns the in-memory Bitmap, marking it as the most recently used one,
+     * or null without counting the miss.
+     */
+    private Bitmap getInMemory(long key) {
+        final Entry entry = mCache.get(key);
+        if (null == entry) {
+            return null;
+        }
+        entry.access = mClock.incrementAndGet();
+        mHits.incrementAndGet();
+        return entry.bitmap;
+    }
+
+    /*
+     * Returns the number of evicted Bitmaps, or -1 if too large.
+     */
+    private int putInMemory(long key, Bitmap bitmap) {
+        final int requiredSize = FancyBitmapPool.getAllocationSize(bitmap);
+        if (requiredSize > mMaxSize) {
+            mRejectedPuts.incrementAndGet();
+            return -1;
+        }
+
+        int evicted = 0;
+
+        synchronized (mLock) {
+            final Entry previous = mCache.remove(key);
+            if (null != previous) {
+                mSize -= previous.size;
+                if (previous.bitmap != bitmap) {
+                    release(previous.bitmap);
+                }
+            }
+            while (!mCache.isEmpty() && (mSize + requiredSize) > mMaxSize) {
+                evictOne();
+                evicted++;
+            }
+            final long access = mClock.incrementAndGet();
+            mCache.put(key, new Entry(bitmap, requiredSize, access));
+            mSize += requiredSize;
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Returns the eviction rank of a cached key. When over capacity, the
+     * entry with the highest rank is evicted first, the least recently used
+     * one among equals. Invoked while holding the cache lock, so it must be
+     * quick. All ranks are equal by default, making this a plain LRU cache.
+     */
+    protected int getEvictionRank(long key) {
+        return 0;
+    }
+
+    /*
+     * Evicts the highest ranked, least recently used Bitmap. Must hold the
+     * lock.
+     */
+    private void evictOne() {
+        Map.Entry<Long, Entry> victim = null;
+        int victimRank = 0;
+        for (Map.Entry<Long, Entry> candidate : mCache.entrySet()) {
+            final int rank = getEvictionRank(candidate.getKey());
+            if (null == victim || rank > victimRank || (rank == victimRank &&
+                    candidate.getValue().access < victim.getValue().access)) {
+                victimRank = rank;
+                victim = candidate;
             }
         }
+        if (null != victim) {
+            final Entry entry = mCache.remove(victim.getKey());
+            mSize -= entry.size;
+            mEvictions.incrementAndGet();
+            release(entry.bitmap);
+        }
     }
 
-    private void evictBitmap(Iterator<Map.Entry<Integer, Bitmap>> iterator) {
-        final Bitmap bitmap = iterator.next().getValue();
-        mSize -= getBitmapSize(bitmap);
-        bitmap.recycle();
-        iterator.remove();
+    private void release(Bitmap bitmap) {
+        if (null == mPool) {
+            bitmap.recycle();
+        } else {
+            mPool.put(bitmap);
+        }
     }
 
-    private static int getDefaultCacheSize(Context context, int percent) {
+    static int getDefaultCacheSize(Context context, int percent) {
         final ActivityManager manager = (ActivityManager) context
                 .getSystemService(Context.ACTIVITY_SERVICE);
 
@@ -152,16 +397,18 @@ public class FancyLruCache implements FancyCache {
         return memory;
     }
 
-    private static int getBitmapSize(Bitmap bitmap) {
-        final int bytes;
+    private static class Entry {
 
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.HONEYCOMB) {
-            bytes = bitmap.getByteCount();
-        } else {
-            bytes = bitmap.getRowBytes() * bitmap.getHeight();
+        final Bitmap bitmap;
+        final int size;
+        volatile long access;
+
+        Entry(Bitmap bitmap, int size, long access) {
+            this.bitmap = bitmap;
+            this.size = size;
+            this.access = access;
         }
 
-        return bytes;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+/**
+ * Trims the memory held by a {@link tslamic.fancybg.FancyBackground}, or by
+ * the shared cache and pool, as the system reports memory pressure, before it
+ * turns into an {@link java.lang.OutOfMemoryError}.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+class FancyMemory implements ComponentCallbacks2 {
+
+    /**
+     * Releases memory on request.
+     */
+    interface Trimmable {
+
+        /**
+         * Trims down to the Bitmaps about to be shown, or if critical, to
+         * about the current one.
+         */
+        void trimMemory(boolean critical);
+
+    }
+
+    private final Trimmable mTarget;
+    private final Context mContext;
+
+    private FancyMemory(Trimmable target, Context context) {
+        mTarget = target;
+        mContext = context;
+    }
+
+    /**
+     * Registers a new instance, returns null if trim callbacks aren't
+     * available on this device.
+     */
+    static FancyMemory register(Trimmable target, Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return null;
+        }
+        final Context app = context.getApplicationContext();
+        final FancyMemory memory = new FancyMemory(target, app);
+        app.registerComponentCallbacks(memory);
+        return memory;
+    }
+
+    /**
+     * Stops receiving the memory callbacks.
+     */
+    void unregister() {
+        mContext.unregisterComponentCallbacks(this);
+    }
+
+    /*
+     * Critical pressure, while running or about to be killed, trims down to
+     * the current Bitmap. Anything milder, including the UI being hidden or
+     * the process going to the background, only trims to the Bitmaps about
+     * to be shown, so resuming doesn't decode them again.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= TRIM_MEMORY_COMPLETE) {
+            mTarget.trimMemory(true);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            mTarget.trimMemory(false);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mTarget.trimMemory(true);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+}
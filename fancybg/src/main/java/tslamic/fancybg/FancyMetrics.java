@@ -0,0 +1,67 @@
+package tslamic.fancybg;
+
+/**
+ * Receives FancyBackground performance events, e.g. to feed them into
+ * telemetry. {@link tslamic.fancybg.FancyStats} is a ready-made
+ * implementation aggregating them into counters and histograms.
+ * <p/>
+ * Except for {@link #onDisplayed}, the methods are invoked on worker threads
+ * and should return quickly.
+ */
+public interface FancyMetrics {
+
+    /**
+     * Optionally implemented by a {@link tslamic.fancybg.FancyMetrics} to
+     * also receive the in-memory cache evictions.
+     */
+    public interface FancyEvictionMetrics {
+
+        /**
+         * Invoked when caching a decoded Bitmap evicted others from the
+         * in-memory cache to make room for it.
+         *
+         * @param count the number of evicted Bitmaps.
+         */
+        void onCacheEvicted(FancyBackground bg, int count);
+
+    }
+
+    /**
+     * Invoked when the Drawable about to be shown was found in the cache.
+     */
+    void onCacheHit(FancyBackground bg, int resource);
+
+    /**
+     * Invoked when the Drawable about to be shown wasn't found in the cache.
+     */
+    void onCacheMiss(FancyBackground bg, int resource);
+
+    /**
+     * Invoked when the cache refused to store a decoded Bitmap.
+     */
+    void onCachePutRejected(FancyBackground bg, int resource);
+
+    /**
+     * Invoked after a Bitmap resource is decoded.
+     *
+     * @param nanos the time spent decoding.
+     */
+    void onDecoded(FancyBackground bg, int resource, long nanos);
+
+    /**
+     * Invoked on the main thread when a new Drawable is shown.
+     *
+     * @param nanos the time from the start of the interval tick to the
+     *              Drawable being set.
+     */
+    void onDisplayed(FancyBackground bg, long nanos);
+
+    /**
+     * Invoked when decoding ran out of memory and the cache was trimmed down
+     * to about a single Bitmap to recover.
+     *
+     * @param recovered true if decoding succeeded after trimming the cache.
+     */
+    void onOutOfMemory(FancyBackground bg, boolean recovered);
+
+}
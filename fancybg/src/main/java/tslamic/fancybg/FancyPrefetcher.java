@@ -0,0 +1,84 @@
+package tslamic.fancybg;
+
+/**
+ * Sizes the prefetch window of a {@link tslamic.fancybg.FancyBackground}: how
+ * many upcoming Drawables should be decoded ahead of time.
+ * <p/>
+ * The window grows with the measured decode latency relative to the interval,
+ * so slow decodes start early enough, and is capped by the number of decoded
+ * Bitmaps the cache can hold next to the shown one.
+ */
+class FancyPrefetcher {
+
+    /*
+     * Weight of the newest sample in the moving averages.
+     */
+    private static final float ALPHA = 0.3f;
+
+    private final long mIntervalNanos;
+    private final int mMaxSize;
+    private final int mCount;
+
+    private float mDecodeNanos;
+    private float mBytes;
+
+    /**
+     * @param interval the millisecond interval between Drawables.
+     * @param count    the number of Drawables.
+     * @param maxSize  the cache max size in bytes.
+     */
+    FancyPrefetcher(long interval, int count, int maxSize) {
+        mIntervalNanos = Math.max(1, interval) * 1000000L;
+        mMaxSize = maxSize;
+        mCount = count;
+    }
+
+    /**
+     * Records a decode.
+     *
+     * @param nanos the time spent decoding.
+     * @param bytes the size of the decoded Bitmap.
+     */
+    synchronized void onDecoded(long nanos, int bytes) {
+        mDecodeNanos = average(mDecodeNanos, nanos);
+        mBytes = average(mBytes, bytes);
+    }
+
+    /**
+     * Returns the number of upcoming Drawables to prefetch, at least 1.
+     */
+    synchronized int getWindow() {
+        /*
+         * Every Drawable shown within the time it takes to decode one must
+         * already be on its way, plus the one after.
+         */
+        final int needed = 1 + (int) Math.ceil(mDecodeNanos / mIntervalNanos);
+
+        int affordable = mCount - 1;
+        if (mBytes > 0) {
+            affordable = Math.min(affordable, (int) (mMaxSize / mBytes) - 1);
+        }
+
+        return Math.max(1, Math.min(needed, affordable));
+    }
+
+    /**
+     * Returns the expected number of bytes the given number of decoded
+     * Bitmaps take, 0 if unknown.
+     */
+    synchronized int getBytes(int count) {
+        return (int) Math.ceil(mBytes * count);
+    }
+
+    /**
+     * Returns the average decode time in nanoseconds, 0 if unknown.
+     */
+    synchronized long getDecodeNanos() {
+        return (long) mDecodeNanos;
+    }
+
+    private static float average(float average, float sample) {
+        return average == 0 ? sample : average + ALPHA * (sample - average);
+    }
+
+}
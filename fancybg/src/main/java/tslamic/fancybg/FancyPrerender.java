@@ -0,0 +1,130 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.DisplayMetrics;
+import android.widget.ImageView;
+
+/**
+ * Applies the scale type or matrix of a
+ * {@link tslamic.fancybg.FancyBackground} to decoded Bitmaps ahead of time,
+ * producing Bitmaps of exactly the view size. Showing those is a plain 1:1
+ * copy, with no resampling on the main thread during animations.
+ */
+class FancyPrerender {
+
+    /*
+     * The decoder uses transforms 0 to 5, see FancyDecoder#getVariant().
+     */
+    private static final int TRANSFORM = 6;
+
+    private final ImageView.ScaleType mScale;
+    private final DisplayMetrics mMetrics;
+    private final FancyBitmapPool mPool;
+    private final Matrix mMatrix;
+    private final Paint mPaint;
+
+    /**
+     * @param matrix the custom matrix, if the scale type is MATRIX.
+     * @param pool   the pool providing the rendered Bitmaps, or null.
+     */
+    FancyPrerender(ImageView.ScaleType scale, Matrix matrix,
+                   DisplayMetrics metrics, FancyBitmapPool pool) {
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        mMetrics = metrics;
+        mMatrix = matrix;
+        mScale = scale;
+        mPool = pool;
+    }
+
+    /**
+     * Returns the cache key variant of the rendered Bitmaps.
+     */
+    int getVariant() {
+        return TRANSFORM << 3 | mScale.ordinal();
+    }
+
+    /**
+     * Draws the Bitmap into a new one of the given size, the way an
+     * ImageView of this scale type would. Thread safe.
+     */
+    Bitmap render(Bitmap source, int width, int height) {
+        final Bitmap target = FancyBitmapPool.obtain(mPool, width, height,
+                Bitmap.Config.ARGB_8888);
+        target.setDensity(mMetrics.densityDpi);
+        target.eraseColor(Color.TRANSPARENT);
+
+        /*
+         * Sized like the BitmapDrawable the ImageView would be given.
+         */
+        final int dw = source.getScaledWidth(mMetrics);
+        final int dh = source.getScaledHeight(mMetrics);
+        final Matrix matrix = new Matrix();
+        setMatrix(mScale, mMatrix, dw, dh, width, height, matrix);
+
+        final Canvas canvas = new Canvas(target);
+        canvas.concat(matrix);
+        canvas.drawBitmap(source, null, new RectF(0, 0, dw, dh), mPaint);
+
+        return target;
+    }
+
+    /**
+     * Sets the matrix drawing content of the given size into a view of the
+     * given size, as an ImageView of the given scale type would.
+     *
+     * @param custom the custom matrix, used if the scale type is MATRIX.
+     */
+    static void setMatrix(ImageView.ScaleType scale, Matrix custom, int dw,
+                          int dh, int vw, int vh, Matrix matrix) {
+        matrix.reset();
+        switch (scale) {
+            case MATRIX:
+                if (null != custom) {
+                    matrix.set(custom);
+                }
+                break;
+            case CENTER:
+                matrix.setTranslate(Math.round((vw - dw) * 0.5f),
+                        Math.round((vh - dh) * 0.5f));
+                break;
+            case CENTER_CROP: {
+                final float s = Math.max((float) vw / dw, (float) vh / dh);
+                matrix.setScale(s, s);
+                matrix.postTranslate(Math.round((vw - dw * s) * 0.5f),
+                        Math.round((vh - dh * s) * 0.5f));
+                break;
+            }
+            case CENTER_INSIDE: {
+                final float s = Math.min(1f,
+                        Math.min((float) vw / dw, (float) vh / dh));
+                matrix.setScale(s, s);
+                matrix.postTranslate(Math.round((vw - dw * s) * 0.5f),
+                        Math.round((vh - dh * s) * 0.5f));
+                break;
+            }
+            default:
+                matrix.setRectToRect(new RectF(0, 0, dw, dh),
+                        new RectF(0, 0, vw, vh), getScaleToFit(scale));
+                break;
+        }
+    }
+
+    private static Matrix.ScaleToFit getScaleToFit(ImageView.ScaleType scale) {
+        switch (scale) {
+            case FIT_XY:
+                return Matrix.ScaleToFit.FILL;
+            case FIT_START:
+                return Matrix.ScaleToFit.START;
+            case FIT_END:
+                return Matrix.ScaleToFit.END;
+            default:
+                return Matrix.ScaleToFit.CENTER;
+        }
+    }
+
+}
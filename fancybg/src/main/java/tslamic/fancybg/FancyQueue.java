@@ -0,0 +1,88 @@
+package tslamic.fancybg;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks of a single {@link tslamic.fancybg.FancyBackground} on a
+ * shared {@link java.util.concurrent.Executor}, in the order they were
+ * submitted and with at most a given number of them running at the same time.
+ */
+class FancyQueue implements Executor {
+
+    private final LinkedList<Runnable> mTasks;
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private int mRunning;
+
+    /**
+     * @param parallelism the maximum number of tasks running at the same
+     *                    time, 1 to run them one by one.
+     */
+    FancyQueue(Executor executor, int parallelism) {
+        if (null == executor) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        mTasks = new LinkedList<Runnable>();
+        mParallelism = parallelism;
+        mExecutor = executor;
+    }
+
+    /**
+     * Enqueues the task. It starts once all previously enqueued tasks have
+     * started and fewer than parallelism tasks are running.
+     */
+    @Override
+    public void execute(final Runnable task) {
+        if (null == task) {
+            throw new IllegalArgumentException("task is null");
+        }
+        synchronized (this) {
+            mTasks.addLast(task);
+            if (mRunning == mParallelism) {
+                return;
+            }
+            mRunning++;
+        }
+        drain();
+    }
+
+    /**
+     * Removes all tasks that haven't started yet.
+     */
+    synchronized void clear() {
+        mTasks.clear();
+    }
+
+    /**
+     * Returns the number of tasks waiting to be run.
+     */
+    synchronized int size() {
+        return mTasks.size();
+    }
+
+    private void drain() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Runnable task;
+                synchronized (FancyQueue.this) {
+                    task = mTasks.poll();
+                    if (null == task) {
+                        mRunning--;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } finally {
+                    drain();
+                }
+            }
+        });
+    }
+
+}
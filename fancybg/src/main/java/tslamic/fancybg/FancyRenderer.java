@@ -0,0 +1,23 @@
+package tslamic.fancybg;
+
+import android.graphics.drawable.Drawable;
+
+/**
+ * A View showing the Drawables of a {@link tslamic.fancybg.FancyBackground}.
+ */
+interface FancyRenderer {
+
+    /**
+     * Shows the Drawable. May be called from any thread, the Drawable is set
+     * on the main thread, on the first frame at or after the given time.
+     *
+     * @param refine       true to replace the current Drawable in place,
+     *                     without animating, false to animate to it as the
+     *                     next one.
+     * @param uptimeMillis when to show the Drawable, in the
+     *                     {@link android.os.SystemClock#uptimeMillis()} time
+     *                     base. Times in the past show it right away.
+     */
+    void show(Drawable drawable, boolean refine, long uptimeMillis);
+
+}
@@ -0,0 +1,129 @@
+package tslamic.fancybg;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A single in-flight load of a Bitmap, shared by everyone asking for the same
+ * cache key while it runs: the prefetching and the ticks never decode the
+ * same resource twice.
+ * <p/>
+ * Runs once, on whichever thread calls {@link #run()} first, the other
+ * callers wait for its result. Cancelling also aborts the running decode.
+ */
+class FancyRequest implements Runnable {
+
+    /**
+     * Loads the Bitmap of a request.
+     */
+    interface Loader {
+
+        /**
+         * Returns the loaded Bitmap, or null. Decodes should
+         * {@link tslamic.fancybg.FancyRequest#attach(BitmapFactory.Options)}
+         * their options, so they can be cancelled.
+         */
+        Bitmap load(FancyRequest request);
+
+    }
+
+    private final FutureTask<Bitmap> mTask;
+    private volatile BitmapFactory.Options mOptions;
+
+    FancyRequest(final Loader loader) {
+        if (null == loader) {
+            throw new IllegalArgumentException("loader is null");
+        }
+        mTask = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return loader.load(FancyRequest.this);
+            }
+        }) {
+            @Override
+            protected void done() {
+                onDone();
+            }
+        };
+    }
+
+    /**
+     * Runs the load on the calling thread, unless it already started or was
+     * cancelled.
+     */
+    @Override
+    public void run() {
+        mTask.run();
+    }
+
+    /**
+     * Waits for the load and returns its Bitmap, or null if it was cancelled
+     * or the waiting thread was interrupted. Errors thrown by the load are
+     * rethrown.
+     */
+    Bitmap get() {
+        try {
+            return mTask.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Cancels the load. Waiting callers get null right away, a running
+     * decode is asked to stop early.
+     */
+    void cancel() {
+        mTask.cancel(false);
+        final BitmapFactory.Options options = mOptions;
+        if (null != options) {
+            options.requestCancelDecode();
+        }
+    }
+
+    /**
+     * Returns true if the load was cancelled. Its Bitmap, if any, is
+     * discarded, so it mustn't be cached.
+     */
+    boolean isCancelled() {
+        return mTask.isCancelled();
+    }
+
+    /**
+     * Makes the decode using the options cancellable. Returns false if the
+     * request was already cancelled, in which case the decode shouldn't
+     * start.
+     */
+    boolean attach(BitmapFactory.Options options) {
+        mOptions = options;
+        if (isCancelled()) {
+            options.requestCancelDecode();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Invoked once the request completes or is cancelled.
+     */
+    protected void onDone() {
+    }
+
+}
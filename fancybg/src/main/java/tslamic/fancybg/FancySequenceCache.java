@@ -0,0 +1,105 @@
+package tslamic.fancybg;
+
+import android.content.Context;
+
+import java.util.HashMap;
+
+/**
+ * In-memory Bitmap cache exploiting the known order the Drawables are shown
+ * in. Instead of the least recently used Bitmap, it evicts the one whose next
+ * use is furthest in the future.
+ * <p/>
+ * Recency is the worst possible policy for a slideshow cycling through more
+ * images than fit in the cache, as every access misses. Holding k of n
+ * images, this cache still hits k - 1 out of every n ticks.
+ * <p/>
+ * Follows the sequence of a single {@link tslamic.fancybg.FancyBackground},
+ * don't share it between several.
+ */
+public class FancySequenceCache extends FancyLruCache {
+
+    private volatile HashMap<Integer, int[]> mPositions;
+    private volatile int mLength;
+    private volatile int mPosition;
+
+    /**
+     * Constructs a new instance targeting ~25% of the available heap, feeding
+     * the evicted Bitmaps to the given pool.
+     */
+    public FancySequenceCache(Context context, FancyBitmapPool pool) {
+        this(context, DEFAULT_CACHE_PERCENTAGE, pool, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param cachePercentage integer value between 1 and 80 (inclusive),
+     *                        denoting the percentage of available heap to
+     *                        target as cache.
+     * @param pool            a {@link tslamic.fancybg.FancyBitmapPool}
+     *                        receiving the evicted Bitmaps for reuse. Use
+     *                        null to recycle them instead.
+     * @param next            the second tier cache, or null.
+     */
+    public FancySequenceCache(Context context, int cachePercentage,
+                              FancyBitmapPool pool, FancyCache next) {
+        super(context, cachePercentage, pool, next);
+        mPositions = new HashMap<Integer, int[]>();
+    }
+
+    /**
+     * Sets the Drawable resources in the order they are shown.
+     */
+    public void setSequence(final int... resources) {
+        if (null == resources) {
+            throw new IllegalArgumentException("sequence is null");
+        }
+
+        final HashMap<Integer, int[]> positions = new HashMap<Integer, int[]>();
+        for (int i = 0; i < resources.length; i++) {
+            final int[] previous = positions.get(resources[i]);
+            final int[] current;
+            if (null == previous) {
+                current = new int[]{i};
+            } else {
+                current = new int[previous.length + 1];
+                System.arraycopy(previous, 0, current, 0, previous.length);
+                current[previous.length] = i;
+            }
+            positions.put(resources[i], current);
+        }
+
+        mLength = resources.length;
+        mPositions = positions;
+    }
+
+    /**
+     * Sets the index, within the sequence, of the Drawable currently shown.
+     */
+    public void setPosition(final int position) {
+        mPosition = position;
+    }
+
+    /**
+     * Ranks the key by the distance to the next use of its resource. The
+     * currently shown one ranks lowest, and resources outside the sequence
+     * highest.
+     */
+    @Override
+    protected int getEvictionRank(long key) {
+        final int[] positions = mPositions.get(FancyKey.resource(key));
+        if (null == positions) {
+            return Integer.MAX_VALUE;
+        }
+
+        final int length = mLength;
+        final int position = mPosition;
+        int distance = Integer.MAX_VALUE;
+        for (int q : positions) {
+            distance = Math.min(distance, (q - position + length) % length);
+        }
+
+        return distance;
+    }
+
+}
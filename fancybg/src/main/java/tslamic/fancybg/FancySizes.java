@@ -0,0 +1,90 @@
+package tslamic.fancybg;
+
+/**
+ * Plain size computations used when decoding, kept free of Android types.
+ */
+final class FancySizes {
+
+    private FancySizes() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns the integer subsampling divisor that scales an image of the
+     * given dimensions down to roughly the required ones. Decoders may round
+     * it down to a power of two.
+     */
+    static int getSampleSize(int width, int height,
+                             int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+            if (reqHeight == 0) {
+                sampleSize = (int) ((float) width / (float) reqWidth);
+            } else if (reqWidth == 0) {
+                sampleSize = (int) ((float) height / (float) reqHeight);
+            } else {
+                final int wSample = (int) ((float) width / (float) reqWidth);
+                final int hSample = (int) ((float) height / (float) reqHeight);
+                sampleSize = Math.max(wSample, hSample);
+            }
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Returns the factor scaling an image of the given dimensions to cover
+     * the required ones, never larger than 1.
+     */
+    static float getCoverScale(int width, int height,
+                               int reqWidth, int reqHeight) {
+        final float scale = Math.max((float) reqWidth / width,
+                (float) reqHeight / height);
+        return Math.min(1f, scale);
+    }
+
+    /**
+     * Returns the factor scaling an image of the given dimensions to fit
+     * within the required ones, never larger than 1.
+     */
+    static float getFitScale(int width, int height,
+                             int reqWidth, int reqHeight) {
+        final float scale = Math.min((float) reqWidth / width,
+                (float) reqHeight / height);
+        return Math.min(1f, scale);
+    }
+
+    /**
+     * Returns the width of the part of an image of the given dimensions that
+     * remains visible once scaled to cover the required ones and centered.
+     * Swap the widths and heights to get the visible height.
+     */
+    static int getCropWidth(int width, int height,
+                            int reqWidth, int reqHeight) {
+        final float scale = Math.max((float) reqWidth / width,
+                (float) reqHeight / height);
+        return Math.min(width, (int) Math.ceil(reqWidth / scale));
+    }
+
+    /**
+     * Returns the largest power of two subsampling divisor not scaling an
+     * image below the given factor, so the remaining downscale can be done
+     * exactly.
+     */
+    static int getPowerOfTwoSampleSize(float scale) {
+        int sampleSize = 1;
+        while (scale * sampleSize * 2 <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns the size of a dimension once subsampled, as decoders round it.
+     */
+    static int getSampledSize(int size, int sampleSize) {
+        return (size + sampleSize - 1) / sampleSize;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,201 @@
+package tslamic.fancybg;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A {@link tslamic.fancybg.FancyMetrics} aggregating the events into counters
+ * and latency histograms. Can be shared by many FancyBackground instances.
+ */
+public class FancyStats implements FancyMetrics,
+        FancyMetrics.FancyEvictionMetrics {
+
+    /**
+     * A thread-safe latency histogram with power-of-two millisecond buckets:
+     * bucket 0 counts latencies under 1 ms, bucket i latencies in
+     * [2^(i-1), 2^i) ms, and the last bucket everything above.
+     */
+    public static class Histogram {
+
+        private static final int BUCKETS = 16;
+
+        private final AtomicIntegerArray mBuckets;
+        private final AtomicInteger mCount;
+
+        Histogram() {
+            mBuckets = new AtomicIntegerArray(BUCKETS);
+            mCount = new AtomicInteger();
+        }
+
+        void record(long nanos) {
+            final long millis = nanos / 1000000L;
+            final int bucket = millis <= 0 ? 0 :
+                    Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+        }
+
+        /**
+         * Returns the number of recorded latencies.
+         */
+        public int getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * Returns the number of buckets.
+         */
+        public int getBucketCount() {
+            return BUCKETS;
+        }
+
+        /**
+         * Returns the number of latencies recorded in the given bucket.
+         */
+        public int getBucket(int bucket) {
+            return mBuckets.get(bucket);
+        }
+
+        /**
+         * Returns the upper bound, in milliseconds, of the bucket containing
+         * the given percentile, e.g. 0.95 for the 95th percentile.
+         */
+        public long getPercentile(double percentile) {
+            final int count = mCount.get();
+            final long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "p50<" + getPercentile(0.5) + "ms, p95<" +
+                    getPercentile(0.95) + "ms, n=" + getCount();
+        }
+
+    }
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mRejectedPuts = new AtomicInteger();
+    private final AtomicInteger mEvictions = new AtomicInteger();
+    private final AtomicInteger mOutOfMemory = new AtomicInteger();
+    private final AtomicInteger mRecoveries = new AtomicInteger();
+    private final Histogram mDecode = new Histogram();
+    private final Histogram mDisplay = new Histogram();
+
+    @Override
+    public void onCacheHit(FancyBackground bg, int resource) {
+        mHits.incrementAndGet();
+    }
+
+    @Override
+    public void onCacheMiss(FancyBackground bg, int resource) {
+        mMisses.incrementAndGet();
+    }
+
+    @Override
+    public void onCachePutRejected(FancyBackground bg, int resource) {
+        mRejectedPuts.incrementAndGet();
+    }
+
+    @Override
+    public void onCacheEvicted(FancyBackground bg, int count) {
+        mEvictions.addAndGet(count);
+    }
+
+    @Override
+    public void onDecoded(FancyBackground bg, int resource, long nanos) {
+        mDecode.record(nanos);
+    }
+
+    @Override
+    public void onDisplayed(FancyBackground bg, long nanos) {
+        mDisplay.record(nanos);
+    }
+
+    @Override
+    public void onOutOfMemory(FancyBackground bg, boolean recovered) {
+        mOutOfMemory.incrementAndGet();
+        if (recovered) {
+            mRecoveries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of shown Drawables found in the cache.
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Returns the number of shown Drawables not found in the cache.
+     */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Returns the number of decoded Bitmaps the cache refused to store.
+     */
+    public int getPutRejectedCount() {
+        return mRejectedPuts.get();
+    }
+
+    /**
+     * Returns the number of Bitmaps evicted from the in-memory cache to make
+     * room for decoded ones.
+     */
+    public int getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /**
+     * Returns the number of times decoding ran out of memory.
+     */
+    public int getOutOfMemoryCount() {
+        return mOutOfMemory.get();
+    }
+
+    /**
+     * Returns the number of times decoding succeeded after running out of
+     * memory and trimming the cache.
+     */
+    public int getRecoveredCount() {
+        return mRecoveries.get();
+    }
+
+    /**
+     * Returns the decode latency histogram.
+     */
+    public Histogram getDecodeLatency() {
+        return mDecode;
+    }
+
+    /**
+     * Returns the tick to display latency histogram.
+     */
+    public Histogram getDisplayLatency() {
+        return mDisplay;
+    }
+
+    @Override
+    public String toString() {
+        return "FancyStats{hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", rejected=" + getPutRejectedCount() +
+                ", evicted=" + getEvictionCount() +
+                ", oom=" + getOutOfMemoryCount() +
+                ", recovered=" + getRecoveredCount() +
+                ", decode=" + mDecode +
+                ", display=" + mDisplay + "}";
+    }
+
+}
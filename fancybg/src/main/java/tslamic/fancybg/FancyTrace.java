@@ -0,0 +1,37 @@
+package tslamic.fancybg;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Wraps {@link android.os.Trace} sections, which are only available on
+ * Jelly Bean MR2 and above.
+ */
+final class FancyTrace {
+
+    private static final boolean ENABLED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private FancyTrace() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Begins a section. Must be ended on the same thread.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void begin(String section) {
+        if (ENABLED) {
+            Trace.beginSection(section);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void end() {
+        if (ENABLED) {
+            Trace.endSection();
+        }
+    }
+
+}
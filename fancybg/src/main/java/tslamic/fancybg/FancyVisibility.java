@@ -0,0 +1,70 @@
+package tslamic.fancybg;
+
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Tracks whether any part of a renderer can be seen, letting the
+ * {@link tslamic.fancybg.FancyBackground} know whenever that changes, so it
+ * doesn't decode and swap Drawables nobody sees.
+ */
+class FancyVisibility implements ViewTreeObserver.OnScrollChangedListener,
+        ViewTreeObserver.OnGlobalLayoutListener {
+
+    private final FancyBackground mFancyBg;
+    private final Rect mVisibleRect;
+    private final View mView;
+    private boolean mVisible;
+
+    FancyVisibility(FancyBackground bg, View view) {
+        mVisibleRect = new Rect();
+        mVisible = true;
+        mFancyBg = bg;
+        mView = view;
+    }
+
+    /**
+     * Starts observing scrolling and layout. Invoke once attached.
+     */
+    void attach() {
+        final ViewTreeObserver observer = mView.getViewTreeObserver();
+        observer.addOnScrollChangedListener(this);
+        observer.addOnGlobalLayoutListener(this);
+    }
+
+    /**
+     * Stops observing scrolling and layout. Invoke before detaching.
+     */
+    @SuppressWarnings("deprecation")
+    void detach() {
+        final ViewTreeObserver observer = mView.getViewTreeObserver();
+        observer.removeOnScrollChangedListener(this);
+        observer.removeGlobalOnLayoutListener(this);
+    }
+
+    /**
+     * Checks the visibility, also invoke on window and view visibility
+     * changes.
+     */
+    void update() {
+        final boolean visible = mView.isShown()
+                && View.VISIBLE == mView.getWindowVisibility()
+                && mView.getGlobalVisibleRect(mVisibleRect);
+        if (visible != mVisible) {
+            mVisible = visible;
+            mFancyBg.setVisible(visible);
+        }
+    }
+
+    @Override
+    public void onScrollChanged() {
+        update();
+    }
+
+    @Override
+    public void onGlobalLayout() {
+        update();
+    }
+
+}